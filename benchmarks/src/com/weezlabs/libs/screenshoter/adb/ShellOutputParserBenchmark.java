@@ -0,0 +1,122 @@
+package com.weezlabs.libs.screenshoter.adb;
+
+import com.weezlabs.libs.screenshoter.model.Device;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of parsing shell output: display info probes and command batch statuses.
+ * Output is fed in chunks of the size ddmlib uses, so line splitting between chunks is measured too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShellOutputParserBenchmark {
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final int DDMLIB_CHUNK_SIZE = 16384;
+	private static final String WM_DENSITY_OUTPUT = "Physical density: 480\r\nOverride density: 320\r\n";
+	private static final String WM_SIZE_OUTPUT = "Physical size: 1080x1920\r\nOverride size: 720x1280\r\n";
+
+	/**
+	 * Position of "init=" line in dumpsys output, in percents
+	 */
+	@Param({"10", "90"})
+	public int initLinePosition;
+
+	private byte[] dumpsysOutput_;
+	private byte[] densityOutput_;
+	private byte[] sizeOutput_;
+	private ShellCommandBatch batch_;
+	private String batchOutput_;
+
+	@Setup
+	public void setUp() {
+		StringBuilder builder = new StringBuilder();
+		int linesCount = 20000;
+		int initLine = linesCount * initLinePosition / 100;
+		for (int i = 0; i < linesCount; i++) {
+			if (i == initLine) {
+				builder.append("    init=1080x1920 480dpi base=1080x1920 cur=1080x1920 app=1080x1776 rng=1080x1008-1794x1704\r\n");
+			} else {
+				builder.append("  Window #").append(i).append(" Window{42b8e2c8 u0 com.android.systemui/StatusBar}: mDisplayId=0\r\n");
+			}
+		}
+		dumpsysOutput_ = builder.toString().getBytes(CHARSET);
+		densityOutput_ = WM_DENSITY_OUTPUT.getBytes(CHARSET);
+		sizeOutput_ = WM_SIZE_OUTPUT.getBytes(CHARSET);
+		batch_ = new ShellCommandBatch().add("wm density 320").add("wm size 720x1280");
+		batchOutput_ = "__SCREENSHOTER_STATUS_0:0\r\n__SCREENSHOTER_STATUS_1:0\r\n";
+	}
+
+	@Benchmark
+	public Device parseDumpsysPreApi18() {
+		final Device device = new Device(null);
+		LineShellOutputReceiver receiver = new LineShellOutputReceiver() {
+			@Override
+			protected boolean processLine(String line) {
+				return DeviceShellHelper.getDeviceInfoFromOutputPreApi18(device, line);
+			}
+		};
+		feed(receiver, dumpsysOutput_);
+		return device;
+	}
+
+	@Benchmark
+	public Device parseWmOutputPostApi18() {
+		final Device device = new Device(null);
+		feed(new LineShellOutputReceiver() {
+			@Override
+			protected boolean processLine(String line) {
+				Device.Dpi dpi = DeviceShellHelper.getDpiFromOutputPost18(line);
+				if (dpi != null) {
+					device.setPhysicalDpi(dpi);
+				}
+				return false;
+			}
+		}, densityOutput_);
+		feed(new LineShellOutputReceiver() {
+			@Override
+			protected boolean processLine(String line) {
+				Device.Resolution resolution = DeviceShellHelper.getResolutionFromOutputPost18(line);
+				if (resolution != null) {
+					device.setPhysicalResolution(resolution);
+				}
+				return false;
+			}
+		}, sizeOutput_);
+		return device;
+	}
+
+	@Benchmark
+	public ShellCommandBatch.Result parseBatchStatuses() {
+		return batch_.parse(batchOutput_);
+	}
+
+	/**
+	 * Passes output to receiver the same way ddmlib does
+	 */
+	private static void feed(LineShellOutputReceiver receiver, byte[] output) {
+		for (int offset = 0; offset < output.length && !receiver.isCancelled(); offset += DDMLIB_CHUNK_SIZE) {
+			receiver.addOutput(output, offset, Math.min(DDMLIB_CHUNK_SIZE, output.length - offset));
+		}
+		if (!receiver.isCancelled()) {
+			receiver.flush();
+		}
+	}
+}
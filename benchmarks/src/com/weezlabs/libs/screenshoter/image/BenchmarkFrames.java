@@ -0,0 +1,123 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.android.ddmlib.RawImage;
+
+import java.util.Random;
+
+/**
+ * Creates synthetic framebuffer images for benchmarks. Content looks like a typical app screen: flat color areas
+ * with some noisy "text" blocks, so encoders get realistic input instead of random noise.
+ */
+public class BenchmarkFrames {
+	public static final String LAYOUT_RGBA_8888 = "RGBA_8888";
+	public static final String LAYOUT_RGBX_8888 = "RGBX_8888";
+	public static final String LAYOUT_BGRA_8888 = "BGRA_8888";
+	public static final String LAYOUT_RGB_565 = "RGB_565";
+	public static final String LAYOUT_GENERIC = "ARGB_8888";
+
+	private BenchmarkFrames() {
+	}
+
+	/**
+	 * Creates raw image with the given ddmlib layout
+	 */
+	public static RawImage createRawImage(String layout, int width, int height) {
+		RawImage rawImage = new RawImage();
+		rawImage.version = 1;
+		rawImage.width = width;
+		rawImage.height = height;
+		switch (layout) {
+			case LAYOUT_RGB_565:
+				rawImage.bpp = 16;
+				setChannels(rawImage, 11, 5, 5, 6, 0, 5, 0, 0);
+				break;
+			case LAYOUT_RGBA_8888:
+				rawImage.bpp = 32;
+				setChannels(rawImage, 0, 8, 8, 8, 16, 8, 24, 8);
+				break;
+			case LAYOUT_RGBX_8888:
+				rawImage.bpp = 32;
+				setChannels(rawImage, 0, 8, 8, 8, 16, 8, 0, 0);
+				break;
+			case LAYOUT_BGRA_8888:
+				rawImage.bpp = 32;
+				setChannels(rawImage, 16, 8, 8, 8, 0, 8, 24, 8);
+				break;
+			case LAYOUT_GENERIC:
+				// Alpha in low byte is not covered by fast paths
+				rawImage.bpp = 32;
+				setChannels(rawImage, 24, 8, 16, 8, 8, 8, 0, 8);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown layout " + layout);
+		}
+		int bytesPerPixel = rawImage.bpp >> 3;
+		rawImage.size = width * height * bytesPerPixel;
+		rawImage.data = new byte[rawImage.size];
+		int[] pixels = createScreenPixels(width, height);
+		for (int i = 0; i < pixels.length; i++) {
+			int index = i * bytesPerPixel;
+			int argb = pixels[i];
+			if (rawImage.bpp == 16) {
+				int value = ((argb >> 19) & 0x1F) << 11 | ((argb >> 10) & 0x3F) << 5 | ((argb >> 3) & 0x1F);
+				rawImage.data[index] = (byte) value;
+				rawImage.data[index + 1] = (byte) (value >> 8);
+			} else {
+				int value = put(argb >>> 24, rawImage.alpha_offset, rawImage.alpha_length)
+						| put(argb >> 16 & 0xFF, rawImage.red_offset, rawImage.red_length)
+						| put(argb >> 8 & 0xFF, rawImage.green_offset, rawImage.green_length)
+						| put(argb & 0xFF, rawImage.blue_offset, rawImage.blue_length);
+				rawImage.data[index] = (byte) value;
+				rawImage.data[index + 1] = (byte) (value >> 8);
+				rawImage.data[index + 2] = (byte) (value >> 16);
+				rawImage.data[index + 3] = (byte) (value >> 24);
+			}
+		}
+		return rawImage;
+	}
+
+	/**
+	 * Creates opaque ARGB pixels of a screen-like picture
+	 */
+	public static int[] createScreenPixels(int width, int height) {
+		int[] pixels = new int[width * height];
+		Random random = new Random(width * 31L + height);
+		int toolbarHeight = height / 12;
+		for (int y = 0; y < height; y++) {
+			int background = y < toolbarHeight ? 0xFF3F51B5 : (y / (height / 10 + 1)) % 2 == 0 ? 0xFFFFFFFF : 0xFFF5F5F5;
+			for (int x = 0; x < width; x++) {
+				pixels[y * width + x] = background;
+			}
+		}
+		// Text-like blocks
+		for (int block = 0; block < 40; block++) {
+			int blockX = random.nextInt(Math.max(1, width - width / 3));
+			int blockY = toolbarHeight + random.nextInt(Math.max(1, height - toolbarHeight - 20));
+			int blockWidth = width / 4 + random.nextInt(width / 8 + 1);
+			for (int y = blockY; y < Math.min(height, blockY + 16); y++) {
+				for (int x = blockX; x < Math.min(width, blockX + blockWidth); x++) {
+					if (random.nextInt(3) == 0) {
+						pixels[y * width + x] = 0xFF212121 + random.nextInt(0x40) * 0x010101;
+					}
+				}
+			}
+		}
+		return pixels;
+	}
+
+	private static void setChannels(RawImage rawImage, int redOffset, int redLength, int greenOffset, int greenLength,
+									int blueOffset, int blueLength, int alphaOffset, int alphaLength) {
+		rawImage.red_offset = redOffset;
+		rawImage.red_length = redLength;
+		rawImage.green_offset = greenOffset;
+		rawImage.green_length = greenLength;
+		rawImage.blue_offset = blueOffset;
+		rawImage.blue_length = blueLength;
+		rawImage.alpha_offset = alphaOffset;
+		rawImage.alpha_length = alphaLength;
+	}
+
+	private static int put(int value, int offset, int length) {
+		return length == 0 ? 0 : (value & 0xFF) << offset;
+	}
+}
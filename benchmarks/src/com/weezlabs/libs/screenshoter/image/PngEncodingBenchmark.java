@@ -0,0 +1,69 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.weezlabs.libs.screenshoter.model.Device;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * PNG encoding cost at real device resolutions. Output is written to memory, so disk speed does not affect results.
+ * {@link PngEncoder} is measured with every filter strategy, ImageIO encoder is kept as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PngEncodingBenchmark {
+	@Param({"XXLARGE_2", "XXLARGE_1", "XLARGE_1", "LARGE_1", "NORMAL_PLUS_2", "SMALL"})
+	public String resolution;
+
+	@Param({"1", "6"})
+	public int compressionLevel;
+
+	@Param({"NONE", "SUB", "PAETH", "ADAPTIVE"})
+	public String filterStrategy;
+
+	private BufferedImage image_;
+	private PngEncoder pngEncoder_;
+	private ByteArrayOutputStream output_;
+
+	@Setup
+	public void setUp() {
+		Device.Resolution size = Device.Resolution.valueOf(resolution);
+		image_ = RawImageConverter.convert(BenchmarkFrames.createRawImage(BenchmarkFrames.LAYOUT_RGBA_8888, size.getWidth(), size.getHeight()));
+		output_ = new ByteArrayOutputStream(size.getWidth() * size.getHeight());
+		pngEncoder_ = new PngEncoder(compressionLevel, PngEncoder.FilterStrategy.valueOf(filterStrategy));
+	}
+
+	@Benchmark
+	public int pngEncoder() throws IOException {
+		output_.reset();
+		pngEncoder_.encode(image_, output_);
+		return output_.size();
+	}
+
+	@Benchmark
+	public int imageIoWrite() throws IOException {
+		output_.reset();
+		ImageIO.write(image_, "png", output_);
+		return output_.size();
+	}
+}
@@ -0,0 +1,75 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.android.ddmlib.RawImage;
+import com.weezlabs.libs.screenshoter.model.Device;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link RawImage} to {@link BufferedImage} conversion for every framebuffer layout.
+ * perPixelSetRgb is the conversion used before {@link RawImageConverter} and is kept as a baseline.
+ * <p/>
+ * Run with: java -cp &lt;benchmarks classpath&gt; org.openjdk.jmh.Main RawImageConverterBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RawImageConverterBenchmark {
+	@Param({BenchmarkFrames.LAYOUT_RGBA_8888, BenchmarkFrames.LAYOUT_RGBX_8888, BenchmarkFrames.LAYOUT_BGRA_8888,
+			BenchmarkFrames.LAYOUT_RGB_565, BenchmarkFrames.LAYOUT_GENERIC})
+	public String layout;
+
+	@Param({"XXLARGE_2", "XLARGE_1", "NORMAL_PLUS_2"})
+	public String resolution;
+
+	private RawImage rawImage_;
+	private int[] pixels_;
+
+	@Setup
+	public void setUp() {
+		Device.Resolution size = Device.Resolution.valueOf(resolution);
+		rawImage_ = BenchmarkFrames.createRawImage(layout, size.getWidth(), size.getHeight());
+		pixels_ = new int[size.getWidth() * size.getHeight()];
+	}
+
+	@Benchmark
+	public BufferedImage convert() {
+		return RawImageConverter.convert(rawImage_);
+	}
+
+	@Benchmark
+	public int[] convertToExistingBuffer() {
+		RawImageConverter.convert(rawImage_, pixels_);
+		return pixels_;
+	}
+
+	@Benchmark
+	public BufferedImage perPixelSetRgb() {
+		BufferedImage bufferedImage = new BufferedImage(rawImage_.width, rawImage_.height, BufferedImage.TYPE_INT_ARGB);
+		int index = 0;
+		int indexIncBytes = rawImage_.bpp >> 3;
+		for (int y = 0; y < rawImage_.height; y++) {
+			for (int x = 0; x < rawImage_.width; x++) {
+				bufferedImage.setRGB(x, y, rawImage_.getARGB(index));
+				index += indexIncBytes;
+			}
+		}
+		return bufferedImage;
+	}
+}
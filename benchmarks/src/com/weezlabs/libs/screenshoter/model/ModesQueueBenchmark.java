@@ -0,0 +1,67 @@
+package com.weezlabs.libs.screenshoter.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building modes queue, filtering excluded modes and scheduling mode order
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModesQueueBenchmark {
+	@Param({"XXLARGE_2", "XLARGE_1", "NORMAL"})
+	public String resolution;
+
+	private Device device_;
+	private List<Mode> excludeModes_;
+	private List<Mode> modes_;
+	private Mode startMode_;
+	private ModeScheduler scheduler_;
+
+	@Setup
+	public void setUp() {
+		device_ = new Device(null);
+		device_.setPhysicalResolution(Device.Resolution.valueOf(resolution));
+		device_.setPhysicalDpi(device_.getPhysicalResolution().getMaxDpi());
+		// Exclude every third mode
+		List<Mode> allModes = Mode.getModesQueue(device_);
+		excludeModes_ = new ArrayList<>();
+		for (int i = 0; i < allModes.size(); i += 3) {
+			excludeModes_.add(new Mode(allModes.get(i).getResolution(), allModes.get(i).getDensity()));
+		}
+		modes_ = Mode.getModesQueue(device_, excludeModes_);
+		startMode_ = new Mode(device_.getPhysicalResolution(), device_.getPhysicalDpi());
+		scheduler_ = new ModeScheduler();
+	}
+
+	@Benchmark
+	public List<Mode> getModesQueue() {
+		return Mode.getModesQueue(device_);
+	}
+
+	@Benchmark
+	public List<Mode> getModesQueueWithExclusions() {
+		return Mode.getModesQueue(device_, excludeModes_);
+	}
+
+	@Benchmark
+	public List<Mode> schedule() {
+		return scheduler_.schedule(startMode_, modes_);
+	}
+}
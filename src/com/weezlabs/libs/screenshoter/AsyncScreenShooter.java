@@ -0,0 +1,224 @@
+package com.weezlabs.libs.screenshoter;
+
+import com.android.ddmlib.IDevice;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.adb.DeviceShellHelper;
+import com.weezlabs.libs.screenshoter.model.Device;
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * Async API which does not depend on Swing. Tasks run on executor supplied by caller and results are returned as
+ * {@link ListenableFuture}. Callbacks added to futures are called on the thread completing the future unless another
+ * executor is passed to {@link Futures#addCallback(ListenableFuture, FutureCallback, Executor)}.
+ * <p/>
+ * Cancelling job's future with interruption stops the job at once, including settle wait and framebuffer pull in progress.
+ * Future is cancelled before the job finishes, so already captured screenshots may be still written for a moment.
+ */
+public class AsyncScreenShooter {
+	private final Executor executor_;
+
+	/**
+	 * @param executor Executor running tasks. Every screenshots job holds its thread until the job is finished
+	 */
+	public AsyncScreenShooter(@NonNull Executor executor) {
+		executor_ = executor;
+	}
+
+	public Executor getExecutor() {
+		return executor_;
+	}
+
+	/**
+	 * Creates manager or returns existing one. See {@link ScreenShooterManager#getInstance(String)}
+	 */
+	public ListenableFuture<ScreenShooterManager> getManager(final String adbPath) {
+		return execute(new Callable<ScreenShooterManager>() {
+			@Override
+			public ScreenShooterManager call() throws Exception {
+				return ScreenShooterManager.getInstance(adbPath);
+			}
+		});
+	}
+
+	/**
+	 * Requests device's display parameters. Future fails with the exception device update failed with
+	 */
+	public ListenableFuture<Device> getDeviceDisplayInfo(@NonNull final IDevice iDevice) {
+		return execute(new Callable<Device>() {
+			@Override
+			public Device call() throws Exception {
+				final Device[] device = new Device[1];
+				final Exception[] exception = new Exception[1];
+				DeviceShellHelper.getDeviceDisplayInfo(iDevice, new DeviceShellHelper.DeviceInfoListener() {
+					@Override
+					public void onDeviceInfoUpdated(Device updatedDevice) {
+						device[0] = updatedDevice;
+					}
+
+					@Override
+					public void onDeviceUpdateFailed(IDevice iDevice, Exception e) {
+						exception[0] = e;
+					}
+				});
+				if (device[0] == null) {
+					throw exception[0] != null ? exception[0] : new RuntimeException("Device update failed");
+				}
+				return device[0];
+			}
+		});
+	}
+
+	/**
+	 * Resets device's display params. Future returns false if reset commands failed
+	 */
+	public ListenableFuture<Boolean> resetDeviceDisplay(@NonNull final ScreenShotSession session) {
+		return execute(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				final boolean[] isSucceeded = new boolean[1];
+				session.resetDeviceDisplay(new ScreenShooterManager.CommandStatusListener() {
+					@Override
+					public void onCommandSentToDevice() {
+						isSucceeded[0] = true;
+					}
+
+					@Override
+					public void onCommandExecutionFailed() {
+						isSucceeded[0] = false;
+					}
+				});
+				return isSucceeded[0];
+			}
+		});
+	}
+
+	/**
+	 * Starts screenshots job. See
+	 * {@link ScreenShotSession#createScreenshotsForAllResolutions(File, String, Integer, List, ScreenShooterManager.ScreenShotJobProgressListener)}
+	 *
+	 * @param progressListener Listener called from job's thread. May be null
+	 * @return Future returning job's status. Cancel it with interruption to stop the job
+	 */
+	public ListenableFuture<JobStatus> createScreenshotsForAllResolutions(@NonNull ScreenShotSession session,
+																		  @Nullable File directory,
+																		  @Nullable String filePrefix,
+																		  @Nullable Integer sleepTimeMs,
+																		  @Nullable List<Mode> excludeModes,
+																		  @Nullable ScreenShooterManager.ScreenShotJobProgressListener progressListener) {
+		return executeJob(session, directory, filePrefix, sleepTimeMs, excludeModes, false, progressListener);
+	}
+
+	/**
+	 * Continues interrupted screenshots job. See
+	 * {@link ScreenShotSession#resumeScreenshotsForAllResolutions(File, String, Integer, List, ScreenShooterManager.ScreenShotJobProgressListener)}
+	 *
+	 * @param progressListener Listener called from job's thread. May be null
+	 * @return Future returning job's status. Cancel it with interruption to stop the job
+	 */
+	public ListenableFuture<JobStatus> resumeScreenshotsForAllResolutions(@NonNull ScreenShotSession session,
+																		  @Nullable File directory,
+																		  @Nullable String filePrefix,
+																		  @Nullable Integer sleepTimeMs,
+																		  @Nullable List<Mode> excludeModes,
+																		  @Nullable ScreenShooterManager.ScreenShotJobProgressListener progressListener) {
+		return executeJob(session, directory, filePrefix, sleepTimeMs, excludeModes, true, progressListener);
+	}
+
+	private ListenableFuture<JobStatus> executeJob(@NonNull final ScreenShotSession session,
+												   @Nullable final File directory,
+												   @Nullable final String filePrefix,
+												   @Nullable final Integer sleepTimeMs,
+												   @Nullable final List<Mode> excludeModes,
+												   final boolean isResume,
+												   @Nullable final ScreenShooterManager.ScreenShotJobProgressListener progressListener) {
+		ListenableFuture<JobStatus> future = execute(new Callable<JobStatus>() {
+			@Override
+			public JobStatus call() throws Exception {
+				// Listener may be called several times on cancellation, the first status wins
+				final JobStatus[] status = new JobStatus[1];
+				ScreenShooterManager.ScreenShotJobProgressListener jobListener = new ScreenShooterManager.ScreenShotJobProgressListener() {
+					@Override
+					public void onScreenshotJobFinished() {
+						setStatus(JobStatus.FINISHED);
+						if (progressListener != null) {
+							progressListener.onScreenshotJobFinished();
+						}
+					}
+
+					@Override
+					public void onScreenshotJobFailed() {
+						setStatus(JobStatus.FAILED);
+						if (progressListener != null) {
+							progressListener.onScreenshotJobFailed();
+						}
+					}
+
+					@Override
+					public void onScreenshotJobCancelled() {
+						if (status[0] == null && progressListener != null) {
+							progressListener.onScreenshotJobCancelled();
+						}
+						setStatus(JobStatus.CANCELLED);
+					}
+
+					@Override
+					public void onScreenshotJobProgressUpdate(int currentProgress, int totalCount) {
+						if (progressListener != null) {
+							progressListener.onScreenshotJobProgressUpdate(currentProgress, totalCount);
+						}
+					}
+
+					private void setStatus(JobStatus jobStatus) {
+						if (status[0] == null) {
+							status[0] = jobStatus;
+						}
+					}
+				};
+				if (isResume) {
+					session.resumeScreenshotsForAllResolutions(directory, filePrefix, sleepTimeMs, excludeModes, jobListener);
+				} else {
+					session.createScreenshotsForAllResolutions(directory, filePrefix, sleepTimeMs, excludeModes, jobListener);
+				}
+				return status[0] != null ? status[0] : JobStatus.FAILED;
+			}
+		});
+		Futures.addCallback(future, new FutureCallback<JobStatus>() {
+			@Override
+			public void onSuccess(JobStatus result) {
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				if (t instanceof CancellationException) {
+					// Cancelled without interruption, job still must stop at the next mode
+					session.stopScreenshotsJob();
+				}
+			}
+		}, MoreExecutors.directExecutor());
+		return future;
+	}
+
+	private <V> ListenableFuture<V> execute(Callable<V> callable) {
+		ListenableFutureTask<V> task = ListenableFutureTask.create(callable);
+		executor_.execute(task);
+		return task;
+	}
+
+	public enum JobStatus {
+		FINISHED,
+		FAILED,
+		CANCELLED
+	}
+}
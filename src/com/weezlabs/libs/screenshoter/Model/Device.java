@@ -11,6 +11,7 @@ public class Device {
 	private Dpi currentDpi_;
 	private Resolution physicalResolution_;
 	private Resolution currentResolution_;
+	private boolean isPhysicalResolutionExact_;
 
 	public Device(IDevice iDevice) {
 		iDevice_ = iDevice;
@@ -36,6 +37,18 @@ public class Device {
 		this.physicalResolution_ = resolution;
 	}
 
+	/**
+	 * Returns true if physical size of display is exactly {@link Device#getPhysicalResolution()}, not just the closest
+	 * resolution to it
+	 */
+	public boolean isPhysicalResolutionExact() {
+		return isPhysicalResolutionExact_;
+	}
+
+	public void setPhysicalResolutionExact(boolean isPhysicalResolutionExact) {
+		this.isPhysicalResolutionExact_ = isPhysicalResolutionExact;
+	}
+
 	public Resolution getCurrentResolution() {
 		return currentResolution_;
 	}
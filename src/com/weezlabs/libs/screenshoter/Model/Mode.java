@@ -35,6 +35,22 @@ public class Mode {
 		return modes;
 	}
 
+	/**
+	 * Returns modes queue without excluded modes
+	 */
+	public static List<Mode> getModesQueue(Device device, List<Mode> excludeModes) {
+		List<Mode> modesList = getModesQueue(device);
+		// Remove excluded modes from list
+		if (excludeModes != null && excludeModes.size() > 0) {
+			for (int i = modesList.size() - 1; i >= 0; i--) {
+				if (excludeModes.contains(modesList.get(i))) {
+					modesList.remove(i);
+				}
+			}
+		}
+		return modesList;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (obj == null) {
@@ -49,6 +65,11 @@ public class Mode {
 				density_.getDpiValue() == other.getDensity().getDpiValue();
 	}
 
+	@Override
+	public int hashCode() {
+		return 31 * (31 * resolution_.getWidth() + resolution_.getHeight()) + density_.getDpiValue();
+	}
+
 	public Device.Resolution getResolution() {
 		return resolution_;
 	}
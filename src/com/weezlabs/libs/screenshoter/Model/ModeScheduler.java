@@ -0,0 +1,164 @@
+package com.weezlabs.libs.screenshoter.model;
+
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Orders modes so that switching between them costs as little as possible. Resolution change causes much heavier
+ * relayout than density change, so by default modes with the same resolution are grouped and density order is
+ * chosen to reuse density applied by the previous mode.
+ * <p/>
+ * Order is built with nearest neighbour heuristic and then improved with 2-opt, which is enough for a few dozens of modes.
+ */
+public class ModeScheduler {
+	public static final int DEFAULT_RESOLUTION_CHANGE_COST = 10;
+	public static final int DEFAULT_DENSITY_CHANGE_COST = 1;
+
+	private final TransitionCostModel costModel_;
+
+	public ModeScheduler() {
+		this(new WeightedCostModel(DEFAULT_RESOLUTION_CHANGE_COST, DEFAULT_DENSITY_CHANGE_COST));
+	}
+
+	public ModeScheduler(@NonNull TransitionCostModel costModel) {
+		costModel_ = costModel;
+	}
+
+	public TransitionCostModel getCostModel() {
+		return costModel_;
+	}
+
+	/**
+	 * Returns new list with modes in the cheapest order found
+	 *
+	 * @param startMode Mode applied on device before the first mode. Null if unknown
+	 * @param modes     Modes to order
+	 */
+	public List<Mode> schedule(@Nullable Mode startMode, @NonNull List<Mode> modes) {
+		List<Mode> remaining = new ArrayList<>(modes);
+		List<Mode> order = new ArrayList<>(modes.size());
+		Mode current = startMode;
+		while (!remaining.isEmpty()) {
+			int bestIndex = 0;
+			int bestCost = Integer.MAX_VALUE;
+			for (int i = 0; i < remaining.size(); i++) {
+				int cost = getCost(current, remaining.get(i));
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestIndex = i;
+				}
+			}
+			current = remaining.remove(bestIndex);
+			order.add(current);
+		}
+		improveWithTwoOpt(startMode, order);
+		return order;
+	}
+
+	/**
+	 * Returns total cost of switching through all modes in the given order
+	 */
+	public int getTotalCost(@Nullable Mode startMode, @NonNull List<Mode> modes) {
+		int total = 0;
+		Mode previous = startMode;
+		for (Mode mode : modes) {
+			total += getCost(previous, mode);
+			previous = mode;
+		}
+		return total;
+	}
+
+	/**
+	 * Reverses sub paths while it makes path cheaper. Path start is fixed by startMode, path end is open
+	 */
+	private void improveWithTwoOpt(Mode startMode, List<Mode> order) {
+		int size = order.size();
+		boolean isImproved = true;
+		while (isImproved) {
+			isImproved = false;
+			for (int i = 0; i < size - 1; i++) {
+				Mode before = i == 0 ? startMode : order.get(i - 1);
+				for (int j = i + 1; j < size; j++) {
+					Mode after = j == size - 1 ? null : order.get(j + 1);
+					List<Mode> reversed = reverse(order.subList(i, j + 1));
+					// Cost model may be asymmetric, so inner part of the path is compared too
+					int currentCost = getCost(before, order.get(i)) + getPathCost(order.subList(i, j + 1))
+							+ (after != null ? getCost(order.get(j), after) : 0);
+					int reversedCost = getCost(before, order.get(j)) + getPathCost(reversed)
+							+ (after != null ? getCost(order.get(i), after) : 0);
+					if (reversedCost < currentCost) {
+						for (int k = 0; k < reversed.size(); k++) {
+							order.set(i + k, reversed.get(k));
+						}
+						isImproved = true;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns cost of switching between consecutive modes, not including switching to the first one
+	 */
+	private int getPathCost(List<Mode> modes) {
+		int total = 0;
+		for (int i = 1; i < modes.size(); i++) {
+			total += getCost(modes.get(i - 1), modes.get(i));
+		}
+		return total;
+	}
+
+	private static List<Mode> reverse(List<Mode> modes) {
+		List<Mode> reversed = new ArrayList<>(modes.size());
+		for (int i = modes.size() - 1; i >= 0; i--) {
+			reversed.add(modes.get(i));
+		}
+		return reversed;
+	}
+
+	private int getCost(Mode from, Mode to) {
+		return costModel_.getCost(from, to);
+	}
+
+	/**
+	 * Cost of switching display from one mode to another
+	 */
+	public interface TransitionCostModel {
+		/**
+		 * @param from Mode applied on device. Null if unknown, change of both params must be assumed
+		 * @param to   Mode to apply
+		 */
+		int getCost(@Nullable Mode from, @NonNull Mode to);
+	}
+
+	/**
+	 * Sums fixed costs of resolution and density changes
+	 */
+	public static class WeightedCostModel implements TransitionCostModel {
+		private final int resolutionChangeCost_;
+		private final int densityChangeCost_;
+
+		public WeightedCostModel(int resolutionChangeCost, int densityChangeCost) {
+			if (resolutionChangeCost < 0 || densityChangeCost < 0) {
+				throw new IllegalArgumentException("Cost cannot be negative");
+			}
+			resolutionChangeCost_ = resolutionChangeCost;
+			densityChangeCost_ = densityChangeCost;
+		}
+
+		@Override
+		public int getCost(@Nullable Mode from, @NonNull Mode to) {
+			int cost = 0;
+			if (from == null || from.getResolution() != to.getResolution()) {
+				cost += resolutionChangeCost_;
+			}
+			if (from == null || from.getDensity() != to.getDensity()) {
+				cost += densityChangeCost_;
+			}
+			return cost;
+		}
+	}
+}
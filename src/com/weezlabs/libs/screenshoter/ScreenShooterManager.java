@@ -6,12 +6,12 @@ import com.sun.istack.internal.Nullable;
 import com.sun.javafx.beans.annotations.NonNull;
 import com.weezlabs.libs.screenshoter.adb.AdbHelper;
 import com.weezlabs.libs.screenshoter.adb.DeviceShellHelper;
+import com.weezlabs.libs.screenshoter.metrics.JobMetrics;
 import com.weezlabs.libs.screenshoter.model.Device;
 import com.weezlabs.libs.screenshoter.model.Mode;
 
 import java.io.File;
 import java.io.FilenameFilter;
-import java.io.IOException;
 import java.util.List;
 
 import javax.swing.SwingWorker;
@@ -23,6 +23,9 @@ import javax.swing.SwingWorker;
  * 2. Request parameters for selected IDevice and set created Device object to manager's instance<br>
  * 3. Start screenshots job with {@link ScreenShooterManager#createScreenshotsForAllResolutions(File, String, Integer, List, ScreenShotJobProgressListener)}<br>
  * 4. Reset display parameters with {@link ScreenShooterManager#resetDeviceDisplay(CommandStatusListener)}<br>
+ * To run jobs on all connected devices at once use {@link ScreenShooterManager#createScreenshotsOnAllDevices(File, String, Integer, List, int, MultiDeviceJobListener)}<br>
+ * Async methods of the manager use {@link SwingWorker} and call listeners on the EDT. Use {@link AsyncScreenShooter}
+ * to run tasks on own executor without Swing.<br>
  * <p/>
  * Created by vfarafonov on 12.02.2016.
  */
@@ -37,9 +40,10 @@ public class ScreenShooterManager {
 	private static volatile ScreenShooterManager instance_;
 
 	private AdbHelper adbHelper_;
-	private DeviceShellHelper shellHelper_;
-	private Device device_;
-	private boolean isJobStarted;
+	private volatile ScreenShotSession session_;
+	private volatile JobMetrics.MetricsListener metricsListener_;
+	private volatile boolean isJmxEnabled_;
+	private volatile boolean isVirtualThreadsEnabled_;
 
 	private ScreenShooterManager() {
 	}
@@ -49,7 +53,6 @@ public class ScreenShooterManager {
 		if (!adbHelper_.isConnected()) {
 			adbHelper_.restartAdb();
 		}
-		shellHelper_ = DeviceShellHelper.getInstance();
 	}
 
 	public static ScreenShooterManager getInstance(String adbPath) {
@@ -157,8 +160,66 @@ public class ScreenShooterManager {
 	}
 
 	public void setDevice(@NonNull Device device) {
-		device_ = device;
-		shellHelper_.setIDevice(device_.getIDevice());
+		ScreenShotSession session = new ScreenShotSession(device);
+		if (metricsListener_ != null) {
+			session.getMetrics().addListener(metricsListener_);
+		}
+		if (isJmxEnabled_) {
+			session.setJmxEnabled(true);
+		}
+		session_ = session;
+	}
+
+	/**
+	 * Sets listener receiving phase latencies of screenshot jobs. Applied to the current device and devices set later,
+	 * as well as to jobs started with {@link ScreenShooterManager#createScreenshotsOnAllDevices(File, String, Integer, List, int, MultiDeviceJobListener)}
+	 */
+	public void setMetricsListener(@Nullable JobMetrics.MetricsListener metricsListener) {
+		JobMetrics.MetricsListener previousListener = metricsListener_;
+		metricsListener_ = metricsListener;
+		ScreenShotSession session = session_;
+		if (session != null) {
+			if (previousListener != null) {
+				session.getMetrics().removeListener(previousListener);
+			}
+			if (metricsListener != null) {
+				session.getMetrics().addListener(metricsListener);
+			}
+		}
+	}
+
+	/**
+	 * Exposes phase latencies of screenshot jobs as MBeans. See {@link com.weezlabs.libs.screenshoter.metrics.JmxMetricsExporter}
+	 */
+	public void setJmxEnabled(boolean isEnabled) {
+		isJmxEnabled_ = isEnabled;
+		ScreenShotSession session = session_;
+		if (session != null) {
+			session.setJmxEnabled(isEnabled);
+		}
+	}
+
+	/**
+	 * Sets whether jobs started with {@link ScreenShooterManager#createScreenshotsOnAllDevices(File, String, Integer, List, int, MultiDeviceJobListener)}
+	 * run on virtual threads. See {@link ScreenShotJobExecutor#ScreenShotJobExecutor(int, boolean)}
+	 */
+	public void setVirtualThreadsEnabled(boolean isEnabled) {
+		isVirtualThreadsEnabled_ = isEnabled;
+	}
+
+	/**
+	 * Returns phase latencies of the running or the last finished job on the current device
+	 */
+	public JobMetrics getJobMetrics() {
+		checkSession();
+		return session_.getMetrics();
+	}
+
+	/**
+	 * Returns session for the device set with {@link ScreenShooterManager#setDevice(Device)}
+	 */
+	public ScreenShotSession getSession() {
+		return session_;
 	}
 
 	public void resetDeviceDisplayAsync(final CommandStatusListener statusListener) {
@@ -195,7 +256,8 @@ public class ScreenShooterManager {
 	}
 
 	public void resetDeviceDisplay(CommandStatusListener statusListener) {
-		shellHelper_.resetDeviceDisplay(statusListener);
+		checkSession();
+		session_.resetDeviceDisplay(statusListener);
 	}
 
 	/**
@@ -281,106 +343,62 @@ public class ScreenShooterManager {
 												   @Nullable final Integer sleepTimeMs,
 												   final List<Mode> excludeModes,
 												   final ScreenShotJobProgressListener progressListener) {
-		if (device_ == null) {
-			throw new RuntimeException("Device must be set up");
-		}
-		if (device_.getPhysicalDpi() == null || device_.getPhysicalResolution() == null) {
-			throw new IllegalArgumentException("Device's physical dpi and resolution cannot be null");
-		}
-
-		final File dir = directory != null ? directory : new File(DEFAULT_SCREENSHOTS_DIR);
-		if (!dir.exists() && !dir.mkdirs()) {
-			throw new RuntimeException("Cannot create screenshots dir");
-		}
-
-		isJobStarted = true;
-
-		List<Mode> modesList = Mode.getModesQueue(device_);
-		// Remove excluded modes from list
-		if (excludeModes != null && excludeModes.size() > 0) {
-			for (int i = modesList.size() - 1; i >= 0; i--) {
-				if (excludeModes.contains(modesList.get(i))) {
-					System.out.println("removing: " + modesList.get(i).getDensity() + " | " + modesList.get(i).getResolution());
-					modesList.remove(i);
-				}
-			}
-		}
-
-		ScreenShooterManager.CommandStatusListener commandSentListener = new ScreenShooterManager.CommandStatusListener() {
-
-			@Override
-			public void onCommandSentToDevice() {
-				if (checkIsCancelled(progressListener)) {
-					return;
-				}
-				// Display params changed. Need to wait activity re-initialising and then to make a screenshot
-				sleepAndMakeScreenshot();
-			}
-
-			@Override
-			public void onCommandExecutionFailed() {
-				isJobStarted = false;
-				if (progressListener != null) {
-					progressListener.onScreenshotJobFailed();
-				}
-			}
+		checkSession();
+		session_.createScreenshotsForAllResolutions(directory, filePrefix, sleepTimeMs, excludeModes, progressListener);
+	}
 
-			private void sleepAndMakeScreenshot() {
-				System.out.println("Resolution changed, sleeping");
-				try {
-					Thread.sleep(sleepTimeMs != null ? sleepTimeMs : DEFAULT_SLEEP_TIME_MS);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				String fileName = filePrefix != null ? filePrefix : DEFAULT_SCREENSHOTS_PREFIX;
-				fileName = fileName + device_.getCurrentResolution() + "_" + device_.getCurrentDpi() + ".png";
-				File output = new File(dir, fileName);
-				System.out.println("Woke up.. making a screenshot: " + output);
-				try {
-					output.createNewFile();
-					if (shellHelper_.makeScreenshot(output)) {
-						System.out.println("Success making a screenshot: " + output);
-					} else {
-						System.out.println("FAIL making a screenshot");
-					}
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		};
+	/**
+	 * Continues job interrupted before in the same directory with the same file prefix. Modes done before are skipped.
+	 * See {@link ScreenShotSession#resumeScreenshotsForAllResolutions(File, String, Integer, List, ScreenShotJobProgressListener)}
+	 */
+	public void resumeScreenshotsForAllResolutions(@Nullable File directory,
+												   @Nullable final String filePrefix,
+												   @Nullable final Integer sleepTimeMs,
+												   final List<Mode> excludeModes,
+												   final ScreenShotJobProgressListener progressListener) {
+		checkSession();
+		session_.resumeScreenshotsForAllResolutions(directory, filePrefix, sleepTimeMs, excludeModes, progressListener);
+	}
 
-		int size = modesList.size();
-		for (int i = 0; i < size; i++) {
-			if (checkIsCancelled(progressListener)) {
-				break;
-			}
-			Mode mode = modesList.get(i);
-			device_.setCurrentDpi(mode.getDensity());
-			device_.setCurrentResolution(mode.getResolution());
-			shellHelper_.setResolutionAndDensity(mode.getResolution(), mode.getDensity(), commandSentListener);
-			if (progressListener != null) {
-				progressListener.onScreenshotJobProgressUpdate(i + 1, size);
-			}
-		}
-		isJobStarted = false;
-		if (progressListener != null) {
-			progressListener.onScreenshotJobFinished();
-		}
+	/**
+	 * Makes screenshots on all connected devices at the same time. Each device gets its own {@link ScreenShotSession}
+	 * and screenshots are saved to a sub directory named after device's serial number. Works asynchronous,
+	 * listener is called from worker threads.
+	 *
+	 * @param directory         Root directory to save screenshots. {@link ScreenShooterManager#DEFAULT_SCREENSHOTS_DIR} will be used if null
+	 * @param filePrefix        File prefix. {@link ScreenShooterManager#DEFAULT_SCREENSHOTS_PREFIX} will be used if null
+	 * @param sleepTimeMs       Time to sleep before making a screenshot. {@link ScreenShooterManager#DEFAULT_SLEEP_TIME_MS} will be used if null
+	 * @param excludeModes      List of modes excluded from making a screenshot
+	 * @param maxConcurrentJobs Max number of devices processed at the same time
+	 * @param listener          Jobs listener
+	 * @return Executor running the jobs. Can be used to stop them
+	 */
+	public ScreenShotJobExecutor createScreenshotsOnAllDevices(@Nullable File directory,
+															   @Nullable String filePrefix,
+															   @Nullable Integer sleepTimeMs,
+															   @Nullable List<Mode> excludeModes,
+															   int maxConcurrentJobs,
+															   @Nullable MultiDeviceJobListener listener) {
+		ScreenShotJobExecutor executor = new ScreenShotJobExecutor(maxConcurrentJobs, isVirtualThreadsEnabled_);
+		executor.setMetricsListener(metricsListener_);
+		executor.setJmxEnabled(isJmxEnabled_);
+		executor.submitAll(getDevices(), directory, filePrefix, sleepTimeMs, excludeModes, listener);
+		executor.shutdown();
+		return executor;
 	}
 
-	private boolean checkIsCancelled(ScreenShotJobProgressListener progressListener) {
-		if (!isJobStarted) {
-			if (progressListener != null) {
-				progressListener.onScreenshotJobCancelled();
-			}
-			return true;
+	public void stopScreenshotsJob() {
+		if (session_ != null) {
+			session_.stopScreenshotsJob();
 		}
-		return false;
 	}
 
-	public void stopScreenshotsJob() {
-		if (isJobStarted) {
-			isJobStarted = false;
+	/**
+	 * Throws RuntimeException if device was not set
+	 */
+	private void checkSession() {
+		if (session_ == null) {
+			throw new RuntimeException("Device must be set up");
 		}
 	}
 
@@ -407,4 +425,31 @@ public class ScreenShooterManager {
 
 		void onScreenshotJobProgressUpdate(int currentProgress, int totalCount);
 	}
+
+	/**
+	 * Job progress listener which is also notified about pulling screenshots from device in deferred transfer mode.
+	 * See {@link ScreenShotSession#setDeferredTransfer(boolean)}
+	 */
+	public interface ScreenShotTransferProgressListener extends ScreenShotJobProgressListener {
+		/**
+		 * Called for every pulled screenshot. Counts start over for every transferred batch
+		 */
+		void onScreenshotTransferProgressUpdate(int transferredCount, int totalCount);
+	}
+
+	/**
+	 * Listener of jobs on several devices. Devices are passed as {@link IDevice} because display info of a device may
+	 * be unavailable when its job fails
+	 */
+	public interface MultiDeviceJobListener {
+		void onDeviceJobFinished(IDevice iDevice);
+
+		void onDeviceJobFailed(IDevice iDevice);
+
+		void onDeviceJobCancelled(IDevice iDevice);
+
+		void onDeviceJobProgressUpdate(IDevice iDevice, int currentProgress, int totalCount);
+
+		void onAllDeviceJobsFinished();
+	}
 }
@@ -0,0 +1,317 @@
+package com.weezlabs.libs.screenshoter;
+
+import com.android.ddmlib.IDevice;
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.adb.DeviceShellHelper;
+import com.weezlabs.libs.screenshoter.capture.CaptureBackend;
+import com.weezlabs.libs.screenshoter.concurrent.ThreadFactories;
+import com.weezlabs.libs.screenshoter.image.ImageFormat;
+import com.weezlabs.libs.screenshoter.image.PngFormat;
+import com.weezlabs.libs.screenshoter.metrics.JobMetrics;
+import com.weezlabs.libs.screenshoter.model.Device;
+import com.weezlabs.libs.screenshoter.model.Mode;
+import com.weezlabs.libs.screenshoter.pipeline.ScreenShotPipeline;
+import com.weezlabs.libs.screenshoter.settle.SettleStrategy;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs screenshots jobs for several devices at the same time. Number of jobs running concurrently is limited by
+ * maxConcurrentJobs, the rest are queued until a worker is free.
+ * <p/>
+ * Jobs spend almost all the time blocked on device I/O. When virtual threads are used, every job runs on its own
+ * virtual thread and screenshots of all jobs are encoded by one shared pool of platform threads sized to processors
+ * count, so hundreds of devices can be processed without a platform thread per device.
+ */
+public class ScreenShotJobExecutor {
+	private static final long ENCODER_KEEP_ALIVE_SECONDS = 30;
+
+	private final ExecutorService executor_;
+	private final ThreadPoolExecutor encoderExecutor_;
+	private final boolean isVirtualThreadsUsed_;
+	private final List<ScreenShotSession> sessions_ = new CopyOnWriteArrayList<>();
+	private final AtomicInteger pendingJobs_ = new AtomicInteger();
+	private volatile boolean isStopped_;
+	private volatile SettleStrategy settleStrategy_;
+	private volatile ScreenShotPipeline.DeduplicationMode deduplicationMode_ = ScreenShotPipeline.DeduplicationMode.HARD_LINK;
+	private volatile ImageFormat imageFormat_ = new PngFormat();
+	private volatile boolean isArchiveOutput_;
+	private volatile CaptureBackend captureBackend_;
+	private volatile boolean isDeferredTransfer_;
+	private volatile JobMetrics.MetricsListener metricsListener_;
+	private volatile boolean isJmxEnabled_;
+
+	public ScreenShotJobExecutor(int maxConcurrentJobs) {
+		this(maxConcurrentJobs, false);
+	}
+
+	/**
+	 * @param maxConcurrentJobs Max number of devices processed at the same time
+	 * @param useVirtualThreads Run jobs on virtual threads. Ignored with a warning if JDK does not support them
+	 */
+	public ScreenShotJobExecutor(int maxConcurrentJobs, boolean useVirtualThreads) {
+		if (maxConcurrentJobs < 1) {
+			throw new IllegalArgumentException("maxConcurrentJobs must be positive");
+		}
+		ThreadFactory threadFactory = useVirtualThreads ? ThreadFactories.newVirtualThreadFactory("screenshot-job-") : null;
+		if (useVirtualThreads && threadFactory == null) {
+			System.out.println("Virtual threads are not supported by JVM, platform threads are used");
+		}
+		isVirtualThreadsUsed_ = threadFactory != null;
+		if (threadFactory == null) {
+			threadFactory = ThreadFactories.newPlatformThreadFactory("screenshot-job-");
+			encoderExecutor_ = null;
+		} else {
+			int encodersCount = Runtime.getRuntime().availableProcessors();
+			encoderExecutor_ = new ThreadPoolExecutor(encodersCount, encodersCount, ENCODER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), ThreadFactories.newPlatformThreadFactory("screenshot-encoder-"));
+			// Idle pool does not keep threads after jobs are finished
+			encoderExecutor_.allowCoreThreadTimeOut(true);
+		}
+		executor_ = Executors.newFixedThreadPool(maxConcurrentJobs, threadFactory);
+	}
+
+	public boolean isVirtualThreadsUsed() {
+		return isVirtualThreadsUsed_;
+	}
+
+	/**
+	 * Queues screenshots job for every device. Device display info is requested on the job's worker thread.
+	 * Each device's screenshots are saved to a sub directory named after device's serial number.
+	 * Listener is called from worker threads.
+	 *
+	 * @param iDevices     Devices to make screenshots on
+	 * @param directory    Root directory for screenshots. {@link ScreenShooterManager#DEFAULT_SCREENSHOTS_DIR} will be used if null
+	 * @param filePrefix   File prefix. {@link ScreenShooterManager#DEFAULT_SCREENSHOTS_PREFIX} will be used if null
+	 * @param sleepTimeMs  Time to sleep before making a screenshot. {@link ScreenShooterManager#DEFAULT_SLEEP_TIME_MS} will be used if null
+	 * @param excludeModes List of modes excluded from making a screenshot
+	 * @param listener     Jobs listener
+	 */
+	public void submitAll(@NonNull IDevice[] iDevices,
+						  @Nullable File directory,
+						  @Nullable final String filePrefix,
+						  @Nullable final Integer sleepTimeMs,
+						  @Nullable final List<Mode> excludeModes,
+						  @Nullable final ScreenShooterManager.MultiDeviceJobListener listener) {
+		final File rootDir = directory != null ? directory : new File(ScreenShooterManager.DEFAULT_SCREENSHOTS_DIR);
+		if (iDevices.length == 0) {
+			if (listener != null) {
+				listener.onAllDeviceJobsFinished();
+			}
+			return;
+		}
+		pendingJobs_.addAndGet(iDevices.length);
+		for (final IDevice iDevice : iDevices) {
+			executor_.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (isStopped_) {
+							if (listener != null) {
+								listener.onDeviceJobCancelled(iDevice);
+							}
+							return;
+						}
+						runDeviceJob(iDevice, new File(rootDir, getDirectoryName(iDevice)), filePrefix, sleepTimeMs, excludeModes, listener);
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+						if (listener != null) {
+							listener.onDeviceJobFailed(iDevice);
+						}
+					} finally {
+						if (pendingJobs_.decrementAndGet() == 0 && listener != null) {
+							listener.onAllDeviceJobsFinished();
+						}
+					}
+				}
+			});
+		}
+	}
+
+	private void runDeviceJob(final IDevice iDevice,
+							  File directory,
+							  String filePrefix,
+							  Integer sleepTimeMs,
+							  List<Mode> excludeModes,
+							  final ScreenShooterManager.MultiDeviceJobListener listener) {
+		final Device[] deviceHolder = new Device[1];
+		DeviceShellHelper.getDeviceDisplayInfo(iDevice, new DeviceShellHelper.DeviceInfoListener() {
+			@Override
+			public void onDeviceInfoUpdated(Device device) {
+				deviceHolder[0] = device;
+			}
+
+			@Override
+			public void onDeviceUpdateFailed(IDevice iDevice, Exception e) {
+				System.out.println("Device update failed: " + e.getMessage());
+			}
+		});
+		final Device device = deviceHolder[0];
+		if (device == null || device.getPhysicalDpi() == null || device.getPhysicalResolution() == null) {
+			if (listener != null) {
+				listener.onDeviceJobFailed(iDevice);
+			}
+			return;
+		}
+
+		ScreenShotSession session = new ScreenShotSession(device);
+		session.setSettleStrategy(settleStrategy_);
+		session.setDeduplicationMode(deduplicationMode_);
+		session.setImageFormat(imageFormat_);
+		session.setArchiveOutput(isArchiveOutput_);
+		session.setEncoderExecutor(encoderExecutor_);
+		if (captureBackend_ != null) {
+			session.setCaptureBackend(captureBackend_);
+		}
+		session.setDeferredTransfer(isDeferredTransfer_);
+		JobMetrics.MetricsListener metricsListener = metricsListener_;
+		if (metricsListener != null) {
+			session.getMetrics().addListener(metricsListener);
+		}
+		if (isJmxEnabled_) {
+			session.setJmxEnabled(true);
+		}
+		sessions_.add(session);
+		if (isStopped_) {
+			// stopAll() could miss the session added right now
+			session.stopScreenshotsJob();
+		}
+		try {
+			session.createScreenshotsForAllResolutions(directory, filePrefix, sleepTimeMs, excludeModes,
+					new ScreenShooterManager.ScreenShotJobProgressListener() {
+						@Override
+						public void onScreenshotJobFinished() {
+							if (listener != null) {
+								listener.onDeviceJobFinished(iDevice);
+							}
+						}
+
+						@Override
+						public void onScreenshotJobFailed() {
+							if (listener != null) {
+								listener.onDeviceJobFailed(iDevice);
+							}
+						}
+
+						@Override
+						public void onScreenshotJobCancelled() {
+							if (listener != null) {
+								listener.onDeviceJobCancelled(iDevice);
+							}
+						}
+
+						@Override
+						public void onScreenshotJobProgressUpdate(int currentProgress, int totalCount) {
+							if (listener != null) {
+								listener.onDeviceJobProgressUpdate(iDevice, currentProgress, totalCount);
+							}
+						}
+					});
+		} finally {
+			sessions_.remove(session);
+		}
+	}
+
+	/**
+	 * Returns directory name based on device serial number. Serials like "192.168.0.2:5555" are not valid file names
+	 */
+	private static String getDirectoryName(IDevice iDevice) {
+		return iDevice.getSerialNumber().replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+	/**
+	 * Sets strategy used by jobs started after this call. See {@link ScreenShotSession#setSettleStrategy(SettleStrategy)}
+	 */
+	public void setSettleStrategy(@Nullable SettleStrategy settleStrategy) {
+		settleStrategy_ = settleStrategy;
+	}
+
+	/**
+	 * Sets deduplication mode used by jobs started after this call. See {@link ScreenShotSession#setDeduplicationMode(ScreenShotPipeline.DeduplicationMode)}
+	 */
+	public void setDeduplicationMode(@NonNull ScreenShotPipeline.DeduplicationMode deduplicationMode) {
+		deduplicationMode_ = deduplicationMode;
+	}
+
+	/**
+	 * Sets format used by jobs started after this call. See {@link ScreenShotSession#setImageFormat(ImageFormat)}
+	 */
+	public void setImageFormat(@NonNull ImageFormat imageFormat) {
+		imageFormat_ = imageFormat;
+	}
+
+	/**
+	 * Sets archive output for jobs started after this call. See {@link ScreenShotSession#setArchiveOutput(boolean)}
+	 */
+	public void setArchiveOutput(boolean isArchiveOutput) {
+		isArchiveOutput_ = isArchiveOutput;
+	}
+
+	/**
+	 * Sets capture backend used by jobs started after this call. Sessions' default is used if null.
+	 * See {@link ScreenShotSession#setCaptureBackend(CaptureBackend)}
+	 */
+	public void setCaptureBackend(@Nullable CaptureBackend captureBackend) {
+		captureBackend_ = captureBackend;
+	}
+
+	/**
+	 * Sets deferred transfer mode used by jobs started after this call. See {@link ScreenShotSession#setDeferredTransfer(boolean)}
+	 */
+	public void setDeferredTransfer(boolean isDeferredTransfer) {
+		isDeferredTransfer_ = isDeferredTransfer;
+	}
+
+	/**
+	 * Sets listener added to metrics of jobs started after this call. See {@link ScreenShotSession#getMetrics()}
+	 */
+	public void setMetricsListener(@Nullable JobMetrics.MetricsListener metricsListener) {
+		metricsListener_ = metricsListener;
+	}
+
+	/**
+	 * Enables JMX metrics for jobs started after this call. See {@link ScreenShotSession#setJmxEnabled(boolean)}
+	 */
+	public void setJmxEnabled(boolean isEnabled) {
+		isJmxEnabled_ = isEnabled;
+	}
+
+	/**
+	 * Returns sessions which are running at the moment
+	 */
+	public List<ScreenShotSession> getRunningSessions() {
+		return sessions_;
+	}
+
+	/**
+	 * Stops all running jobs and cancels queued ones. Executor does not accept new jobs after that
+	 */
+	public void stopAll() {
+		isStopped_ = true;
+		executor_.shutdown();
+		for (ScreenShotSession session : sessions_) {
+			session.stopScreenshotsJob();
+		}
+	}
+
+	/**
+	 * Stops accepting new jobs. Already queued jobs will be finished
+	 */
+	public void shutdown() {
+		executor_.shutdown();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor_.awaitTermination(timeout, unit);
+	}
+}
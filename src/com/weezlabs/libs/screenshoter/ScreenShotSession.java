@@ -0,0 +1,706 @@
+package com.weezlabs.libs.screenshoter;
+
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.adb.DeviceShellHelper;
+import com.weezlabs.libs.screenshoter.archive.ScreenShotArchiveWriter;
+import com.weezlabs.libs.screenshoter.capture.CaptureBackend;
+import com.weezlabs.libs.screenshoter.capture.CapturedFrame;
+import com.weezlabs.libs.screenshoter.capture.DeferredCapture;
+import com.weezlabs.libs.screenshoter.diff.VisualDiffEngine;
+import com.weezlabs.libs.screenshoter.image.ImageFormat;
+import com.weezlabs.libs.screenshoter.image.PngFormat;
+import com.weezlabs.libs.screenshoter.image.RegionOfInterest;
+import com.weezlabs.libs.screenshoter.index.PerceptualHashIndex;
+import com.weezlabs.libs.screenshoter.journal.JobJournal;
+import com.weezlabs.libs.screenshoter.metrics.JmxMetricsExporter;
+import com.weezlabs.libs.screenshoter.metrics.JobMetrics;
+import com.weezlabs.libs.screenshoter.metrics.ModeTimings;
+import com.weezlabs.libs.screenshoter.metrics.Phase;
+import com.weezlabs.libs.screenshoter.model.Device;
+import com.weezlabs.libs.screenshoter.model.Mode;
+import com.weezlabs.libs.screenshoter.model.ModeScheduler;
+import com.weezlabs.libs.screenshoter.pipeline.ScreenShotPipeline;
+import com.weezlabs.libs.screenshoter.postprocess.PostProcessor;
+import com.weezlabs.libs.screenshoter.settle.FixedDelaySettleStrategy;
+import com.weezlabs.libs.screenshoter.settle.SettleStrategy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Screenshots job bound to a single device. Every session owns its own {@link DeviceShellHelper} and cancellation state,
+ * so several sessions can run at the same time for different devices.
+ * Phase latencies of the last job are collected to {@link ScreenShotSession#getMetrics()}.
+ * Completed modes are recorded to {@link JobJournal} in the output directory, so interrupted job can be continued with
+ * {@link ScreenShotSession#resumeScreenshotsForAllResolutions(File, String, Integer, List, ScreenShooterManager.ScreenShotJobProgressListener)}.
+ * Interrupting job's thread cancels the job, settle wait and framebuffer pull in progress are stopped too.
+ * In deferred transfer mode screenshots are captured to device storage and pulled in batches, see
+ * {@link ScreenShotSession#setDeferredTransfer(boolean)}.
+ */
+public class ScreenShotSession {
+	private final Device device_;
+	private final DeviceShellHelper shellHelper_;
+	private final JobMetrics metrics_;
+	private final Map<Mode, RegionOfInterest> regionsOfInterest_ = new ConcurrentHashMap<>();
+	private volatile boolean isJobStarted_;
+	private volatile SettleStrategy settleStrategy_;
+	private volatile ModeScheduler modeScheduler_;
+	private volatile ScreenShotPipeline.DeduplicationMode deduplicationMode_ = ScreenShotPipeline.DeduplicationMode.HARD_LINK;
+	private volatile ImageFormat imageFormat_ = new PngFormat();
+	private volatile boolean isArchiveOutput_;
+	private volatile Executor encoderExecutor_;
+	private volatile boolean isDeferredTransfer_;
+	private volatile long maxPendingTransferBytes_ = DeferredCapture.DEFAULT_MAX_PENDING_BYTES;
+	private volatile VisualDiffEngine visualDiff_;
+	private volatile PerceptualHashIndex hashIndex_;
+	private volatile String hashIndexRun_;
+	private volatile RegionOfInterest defaultRegionOfInterest_;
+	private volatile PostProcessor postProcessor_;
+
+	public ScreenShotSession(@NonNull Device device) {
+		if (device.getIDevice() == null) {
+			throw new IllegalArgumentException("Device must have IDevice");
+		}
+		device_ = device;
+		shellHelper_ = new DeviceShellHelper(device);
+		metrics_ = new JobMetrics(device.getIDevice().getSerialNumber());
+	}
+
+	public Device getDevice() {
+		return device_;
+	}
+
+	public DeviceShellHelper getShellHelper() {
+		return shellHelper_;
+	}
+
+	/**
+	 * Returns phase latencies of the running or the last finished job
+	 */
+	public JobMetrics getMetrics() {
+		return metrics_;
+	}
+
+	/**
+	 * Registers session's metrics in platform MBean server or removes them from it
+	 */
+	public void setJmxEnabled(boolean isEnabled) {
+		if (isEnabled) {
+			JmxMetricsExporter.register(metrics_);
+		} else {
+			JmxMetricsExporter.unregister(metrics_);
+		}
+	}
+
+	public boolean isJobStarted() {
+		return isJobStarted_;
+	}
+
+	public SettleStrategy getSettleStrategy() {
+		return settleStrategy_;
+	}
+
+	/**
+	 * Sets strategy used to wait for display after mode change. When null, job sleeps for sleepTimeMs
+	 */
+	public void setSettleStrategy(@Nullable SettleStrategy settleStrategy) {
+		settleStrategy_ = settleStrategy;
+	}
+
+	public ModeScheduler getModeScheduler() {
+		return modeScheduler_;
+	}
+
+	/**
+	 * Sets scheduler used to order modes, e.g. {@link ModeScheduler} to reduce display switching cost. Not set by
+	 * default, modes are processed in {@link Mode#getModesQueue(Device)} order when null
+	 */
+	public void setModeScheduler(@Nullable ModeScheduler modeScheduler) {
+		modeScheduler_ = modeScheduler;
+	}
+
+	public CaptureBackend getCaptureBackend() {
+		return shellHelper_.getCaptureBackend();
+	}
+
+	/**
+	 * Sets backend screenshots are captured with. See {@link DeviceShellHelper#setCaptureBackend(CaptureBackend)}
+	 */
+	public void setCaptureBackend(@NonNull CaptureBackend captureBackend) {
+		shellHelper_.setCaptureBackend(captureBackend);
+	}
+
+	public ImageFormat getImageFormat() {
+		return imageFormat_;
+	}
+
+	/**
+	 * Sets format screenshots are written in. PNG is used by default. Fast intermediate formats like
+	 * {@link com.weezlabs.libs.screenshoter.image.QoiFormat} can be converted to PNG later with
+	 * {@link com.weezlabs.libs.screenshoter.image.ImageFormatConverter}
+	 */
+	public void setImageFormat(@NonNull ImageFormat imageFormat) {
+		imageFormat_ = imageFormat;
+	}
+
+	public VisualDiffEngine getVisualDiff() {
+		return visualDiff_;
+	}
+
+	/**
+	 * Sets engine every captured screenshot is compared with its baseline by. Comparison runs on pipeline's threads,
+	 * results are reported to {@link VisualDiffEngine.DiffListener}. Screenshots are not compared if null
+	 */
+	public void setVisualDiff(@Nullable VisualDiffEngine visualDiff) {
+		visualDiff_ = visualDiff;
+	}
+
+	public PerceptualHashIndex getHashIndex() {
+		return hashIndex_;
+	}
+
+	/**
+	 * Sets index perceptual hashes of screenshots are added to, keyed by device's serial number, mode and run.
+	 * Index is flushed when job finishes and is not closed by session. Hashes are not computed if index is null
+	 *
+	 * @param run Run name records of the next jobs are keyed by. Job's start time is used if null
+	 */
+	public void setHashIndex(@Nullable PerceptualHashIndex hashIndex, @Nullable String run) {
+		hashIndex_ = hashIndex;
+		hashIndexRun_ = run;
+	}
+
+	/**
+	 * Sets region of interest used for modes without own region. Frames are cropped and blanked by it while they
+	 * are converted. Baselines of visual diff should be captured with the same regions
+	 */
+	public void setDefaultRegionOfInterest(@Nullable RegionOfInterest regionOfInterest) {
+		defaultRegionOfInterest_ = regionOfInterest;
+	}
+
+	/**
+	 * Sets region of interest used for the mode instead of default one. Region is removed if null
+	 */
+	public void setRegionOfInterest(@NonNull Mode mode, @Nullable RegionOfInterest regionOfInterest) {
+		if (regionOfInterest != null) {
+			regionsOfInterest_.put(mode, regionOfInterest);
+		} else {
+			regionsOfInterest_.remove(mode);
+		}
+	}
+
+	public PostProcessor getPostProcessor() {
+		return postProcessor_;
+	}
+
+	/**
+	 * Sets post processor making thumbnails, previews and other images from captured frames while they are written.
+	 * Job waits for its stages before it finishes and fails if any stage failed. Post processor should not be shared
+	 * by sessions running at the same time
+	 */
+	public void setPostProcessor(@Nullable PostProcessor postProcessor) {
+		postProcessor_ = postProcessor;
+	}
+
+	public boolean isArchiveOutput() {
+		return isArchiveOutput_;
+	}
+
+	/**
+	 * Sets whether job's screenshots are written to one archive file instead of a file per screenshot. Archive is
+	 * named after file prefix with {@link ScreenShotArchiveWriter#EXTENSION} extension and can be read with
+	 * {@link com.weezlabs.libs.screenshoter.archive.ScreenShotArchiveReader}
+	 */
+	public void setArchiveOutput(boolean isArchiveOutput) {
+		isArchiveOutput_ = isArchiveOutput;
+	}
+
+	public boolean isDeferredTransfer() {
+		return isDeferredTransfer_;
+	}
+
+	/**
+	 * Sets whether screenshots are captured to device storage and pulled in batches instead of pulling every frame
+	 * right after mode change. Batch is pulled when captured screenshots reach
+	 * {@link ScreenShotSession#setMaxPendingTransferBytes(long)} and when all modes are processed. Transfer progress
+	 * is reported to {@link ScreenShooterManager.ScreenShotTransferProgressListener}. Frames captured by settle strategy
+	 * are used as is
+	 */
+	public void setDeferredTransfer(boolean isDeferredTransfer) {
+		isDeferredTransfer_ = isDeferredTransfer;
+	}
+
+	public long getMaxPendingTransferBytes() {
+		return maxPendingTransferBytes_;
+	}
+
+	/**
+	 * Sets size of screenshots kept on device before they are pulled in deferred transfer mode
+	 */
+	public void setMaxPendingTransferBytes(long maxPendingTransferBytes) {
+		if (maxPendingTransferBytes <= 0) {
+			throw new IllegalArgumentException("maxPendingTransferBytes must be positive");
+		}
+		maxPendingTransferBytes_ = maxPendingTransferBytes;
+	}
+
+	public Executor getEncoderExecutor() {
+		return encoderExecutor_;
+	}
+
+	/**
+	 * Sets executor encoding and writing screenshots. Executor can be shared by several sessions. When null, every job
+	 * starts its own encoder threads
+	 */
+	public void setEncoderExecutor(@Nullable Executor encoderExecutor) {
+		encoderExecutor_ = encoderExecutor;
+	}
+
+	public ScreenShotPipeline.DeduplicationMode getDeduplicationMode() {
+		return deduplicationMode_;
+	}
+
+	/**
+	 * Sets how screenshots identical to already written ones are stored. Hard links are used by default
+	 */
+	public void setDeduplicationMode(@NonNull ScreenShotPipeline.DeduplicationMode deduplicationMode) {
+		deduplicationMode_ = deduplicationMode;
+	}
+
+	/**
+	 * Returns modes in the order they will be processed by the job
+	 *
+	 * @param excludeModes List of modes excluded from making a screenshot
+	 */
+	public List<Mode> getPlannedModes(@Nullable List<Mode> excludeModes) {
+		if (device_.getPhysicalDpi() == null || device_.getPhysicalResolution() == null) {
+			throw new IllegalArgumentException("Device's physical dpi and resolution cannot be null");
+		}
+		List<Mode> modesList = Mode.getModesQueue(device_, excludeModes);
+		if (excludeModes != null && excludeModes.size() > 0) {
+			System.out.println("Modes excluded: " + excludeModes.size() + ", modes to process: " + modesList.size());
+		}
+		ModeScheduler modeScheduler = modeScheduler_;
+		if (modeScheduler != null) {
+			modesList = modeScheduler.schedule(getAppliedMode(), modesList);
+		}
+		return modesList;
+	}
+
+	/**
+	 * Returns mode applied on device at the moment
+	 */
+	private Mode getAppliedMode() {
+		Device.Resolution resolution = device_.getCurrentResolution() != null ? device_.getCurrentResolution() : device_.getPhysicalResolution();
+		Device.Dpi dpi = device_.getCurrentDpi() != null ? device_.getCurrentDpi() : device_.getPhysicalDpi();
+		return new Mode(resolution, dpi);
+	}
+
+	/**
+	 * Returns name of file mode's screenshot is written to
+	 */
+	private static String getScreenshotFileName(String prefix, Mode mode, ImageFormat imageFormat) {
+		return prefix + mode.getResolution() + "_" + mode.getDensity() + "." + imageFormat.getFileExtension();
+	}
+
+	/**
+	 * Goes through all possible display params and makes a screenshots. Skips modes in excludeModes list.
+	 * Modes are processed in {@link ScreenShotSession#getPlannedModes(List)} order
+	 *
+	 * @param directory        Directory to save screenshots. Will try to create if not exists. {@link ScreenShooterManager#DEFAULT_SCREENSHOTS_DIR} will be used if null
+	 * @param filePrefix       File prefix. {@link ScreenShooterManager#DEFAULT_SCREENSHOTS_PREFIX} will be used if null
+	 * @param sleepTimeMs      Time to sleep before making a screenshot. {@link ScreenShooterManager#DEFAULT_SLEEP_TIME_MS} will be used if null.
+	 *                         Ignored if {@link SettleStrategy} is set with {@link ScreenShotSession#setSettleStrategy(SettleStrategy)}
+	 * @param excludeModes     List of modes excluded from making a screenshot
+	 * @param progressListener Progress listener
+	 */
+	public void createScreenshotsForAllResolutions(@Nullable File directory,
+												   @Nullable String filePrefix,
+												   @Nullable Integer sleepTimeMs,
+												   List<Mode> excludeModes,
+												   ScreenShooterManager.ScreenShotJobProgressListener progressListener) {
+		createScreenshots(directory, filePrefix, sleepTimeMs, excludeModes, false, progressListener);
+	}
+
+	/**
+	 * Continues job interrupted before. Modes recorded in the job's journal are skipped if their screenshots exist and
+	 * were not changed since. Progress is reported against all modes of the job, including ones done before.
+	 * Resume is not supported for archive output, all modes are processed again
+	 *
+	 * @see ScreenShotSession#createScreenshotsForAllResolutions(File, String, Integer, List, ScreenShooterManager.ScreenShotJobProgressListener)
+	 */
+	public void resumeScreenshotsForAllResolutions(@Nullable File directory,
+												   @Nullable String filePrefix,
+												   @Nullable Integer sleepTimeMs,
+												   List<Mode> excludeModes,
+												   ScreenShooterManager.ScreenShotJobProgressListener progressListener) {
+		createScreenshots(directory, filePrefix, sleepTimeMs, excludeModes, true, progressListener);
+	}
+
+	private void createScreenshots(@Nullable File directory,
+								   @Nullable final String filePrefix,
+								   @Nullable final Integer sleepTimeMs,
+								   final List<Mode> excludeModes,
+								   boolean isResume,
+								   final ScreenShooterManager.ScreenShotJobProgressListener progressListener) {
+		final File dir = directory != null ? directory : new File(ScreenShooterManager.DEFAULT_SCREENSHOTS_DIR);
+		if (!dir.exists() && !dir.mkdirs()) {
+			throw new RuntimeException("Cannot create screenshots dir");
+		}
+
+		final String prefix = filePrefix != null ? filePrefix : ScreenShooterManager.DEFAULT_SCREENSHOTS_PREFIX;
+		final ImageFormat imageFormat = imageFormat_;
+		JobJournal journal = null;
+		final List<Mode> modesList;
+		int doneCount = 0;
+		if (isArchiveOutput_) {
+			modesList = getPlannedModes(excludeModes);
+		} else {
+			journal = new JobJournal(new File(dir, prefix + JobJournal.FILE_NAME_SUFFIX));
+			try {
+				if (isResume) {
+					List<Mode> skipModes = excludeModes != null ? new ArrayList<>(excludeModes) : new ArrayList<Mode>();
+					// Entries written in another format point to files which are not outputs of this job
+					Set<String> fileNames = new HashSet<>();
+					for (Mode mode : Mode.getModesQueue(device_)) {
+						fileNames.add(getScreenshotFileName(prefix, mode, imageFormat));
+					}
+					skipModes.addAll(journal.getVerifiedModes(fileNames));
+					modesList = getPlannedModes(skipModes);
+					doneCount = Mode.getModesQueue(device_, excludeModes).size() - modesList.size();
+					System.out.println("Resuming job, modes already done: " + doneCount);
+				} else {
+					modesList = getPlannedModes(excludeModes);
+					journal.clear();
+					// Manifest of the previous job would be merged with the new one
+					Files.deleteIfExists(new File(dir, ScreenShotPipeline.DUPLICATES_MANIFEST).toPath());
+				}
+			} catch (IOException e) {
+				journal.close();
+				throw new RuntimeException("Cannot access job journal", e);
+			}
+		}
+
+		isJobStarted_ = true;
+		metrics_.reset();
+
+		final SettleStrategy settleStrategy = settleStrategy_ != null
+				? settleStrategy_
+				: new FixedDelaySettleStrategy(sleepTimeMs != null ? sleepTimeMs : ScreenShooterManager.DEFAULT_SLEEP_TIME_MS);
+
+		ScreenShotPipeline.FrameListener frameListener = new ScreenShotPipeline.FrameListener() {
+			@Override
+			public void onFrameWritten(File output) {
+				System.out.println("Success making a screenshot: " + output);
+			}
+
+			@Override
+			public void onFrameDuplicated(File output, File original) {
+				System.out.println("Screenshot " + output + " is identical to " + original);
+			}
+
+			@Override
+			public void onFrameFailed(File output) {
+				System.out.println("FAIL making a screenshot: " + output);
+			}
+		};
+		Executor encoderExecutor = encoderExecutor_;
+		final ScreenShotPipeline pipeline = encoderExecutor != null
+				? new ScreenShotPipeline(encoderExecutor, ScreenShotPipeline.DEFAULT_QUEUE_CAPACITY, frameListener)
+				: ScreenShotPipeline.createDefault(frameListener);
+		pipeline.setJobMetrics(metrics_);
+		pipeline.setDeduplicationMode(deduplicationMode_);
+		pipeline.setImageFormat(imageFormat);
+		pipeline.setJournal(journal);
+		pipeline.setVisualDiff(visualDiff_);
+		PostProcessor postProcessor = postProcessor_;
+		if (postProcessor != null && postProcessor.hasStages()) {
+			postProcessor.setJobMetrics(metrics_);
+			pipeline.setPostProcessor(postProcessor);
+		}
+		pipeline.setDefaultRegionOfInterest(defaultRegionOfInterest_);
+		for (Map.Entry<Mode, RegionOfInterest> entry : regionsOfInterest_.entrySet()) {
+			pipeline.setRegionOfInterest(entry.getKey(), entry.getValue());
+		}
+		PerceptualHashIndex hashIndex = hashIndex_;
+		if (hashIndex != null) {
+			String run = hashIndexRun_;
+			pipeline.setHashIndex(hashIndex, device_.getIDevice().getSerialNumber(),
+					run != null ? run : String.valueOf(System.currentTimeMillis()));
+		}
+		if (isArchiveOutput_) {
+			try {
+				pipeline.setArchive(new ScreenShotArchiveWriter(new File(dir, prefix + "archive." + ScreenShotArchiveWriter.EXTENSION)));
+			} catch (IOException e) {
+				pipeline.abort();
+				isJobStarted_ = false;
+				throw new RuntimeException("Cannot create screenshots archive", e);
+			}
+		}
+
+		final DeferredCapture<PendingScreenshot> deferredCapture = isDeferredTransfer_
+				? new DeferredCapture<PendingScreenshot>(shellHelper_, maxPendingTransferBytes_)
+				: null;
+		final boolean[] isTransferFailed = new boolean[1];
+
+		// Mode being applied and whether it changes anything on device. Used by command listener
+		final Mode[] currentMode = new Mode[1];
+		final boolean[] isDisplayChanged = new boolean[1];
+		final ModeTimings[] currentTimings = new ModeTimings[1];
+		final long[] commandStartTime = new long[1];
+
+		ScreenShooterManager.CommandStatusListener commandSentListener = new ScreenShooterManager.CommandStatusListener() {
+
+			@Override
+			public void onCommandSentToDevice() {
+				if (isDisplayChanged[0]) {
+					metrics_.recordSince(currentTimings[0], Phase.SHELL_COMMAND, commandStartTime[0]);
+				}
+				if (checkIsCancelled(progressListener)) {
+					return;
+				}
+				// Display params changed. Need to wait activity re-initialising and then to make a screenshot
+				sleepAndMakeScreenshot();
+			}
+
+			@Override
+			public void onCommandExecutionFailed() {
+				isJobStarted_ = false;
+				if (progressListener != null) {
+					progressListener.onScreenshotJobFailed();
+				}
+			}
+
+			private void sleepAndMakeScreenshot() {
+				CapturedFrame capturedFrame = null;
+				if (isDisplayChanged[0]) {
+					System.out.println("Resolution changed, waiting for display to settle");
+					long settleStartTime = System.nanoTime();
+					try {
+						capturedFrame = settleStrategy.awaitSettled(shellHelper_);
+						metrics_.recordSince(currentTimings[0], Phase.SETTLE_WAIT, settleStartTime);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						isJobStarted_ = false;
+						return;
+					}
+				} else {
+					System.out.println("Display params are already applied");
+				}
+				File output = new File(dir, getScreenshotFileName(prefix, currentMode[0], imageFormat));
+				System.out.println("Woke up.. making a screenshot: " + output);
+				if (capturedFrame == null && deferredCapture != null) {
+					captureToDevice(output);
+					return;
+				}
+				if (capturedFrame == null) {
+					long pullStartTime = System.nanoTime();
+					capturedFrame = shellHelper_.captureFrame();
+					metrics_.recordSince(currentTimings[0], Phase.FRAMEBUFFER_PULL, pullStartTime);
+				}
+				if (capturedFrame == null) {
+					if (Thread.currentThread().isInterrupted()) {
+						// Pull was aborted by cancellation
+						isJobStarted_ = false;
+						return;
+					}
+					System.out.println("FAIL making a screenshot");
+					return;
+				}
+				try {
+					// Encoding and writing happen on pipeline workers. Blocks while too many frames are waiting
+					pipeline.submit(capturedFrame, output, currentMode[0], currentTimings[0]);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					isJobStarted_ = false;
+				}
+			}
+
+			private void captureToDevice(File output) {
+				long captureStartTime = System.nanoTime();
+				boolean isCaptured = deferredCapture.capture(new PendingScreenshot(output, currentMode[0], currentTimings[0]));
+				metrics_.recordSince(currentTimings[0], Phase.FRAMEBUFFER_PULL, captureStartTime);
+				if (!isCaptured) {
+					if (Thread.currentThread().isInterrupted()) {
+						isJobStarted_ = false;
+						return;
+					}
+					System.out.println("FAIL making a screenshot on device");
+					isTransferFailed[0] = true;
+					return;
+				}
+				if (deferredCapture.isFull() && !transferDeferredFrames(deferredCapture, pipeline, progressListener)) {
+					isTransferFailed[0] = true;
+				}
+			}
+		};
+
+		int size = modesList.size();
+		int totalCount = doneCount + size;
+		for (int i = 0; i < size; i++) {
+			if (checkIsCancelled(progressListener)) {
+				finishPipeline(pipeline, deferredCapture);
+				return;
+			}
+			Mode mode = modesList.get(i);
+			currentMode[0] = mode;
+			currentTimings[0] = metrics_.startMode(mode);
+			isDisplayChanged[0] = shellHelper_.isDisplayChangeNeeded(mode.getResolution(), mode.getDensity());
+			commandStartTime[0] = System.nanoTime();
+			shellHelper_.setResolutionAndDensity(mode.getResolution(), mode.getDensity(), commandSentListener);
+			if (progressListener != null) {
+				progressListener.onScreenshotJobProgressUpdate(doneCount + i + 1, totalCount);
+			}
+		}
+		if (deferredCapture != null && isJobStarted_
+				&& !transferDeferredFrames(deferredCapture, pipeline, progressListener)) {
+			isTransferFailed[0] = true;
+		}
+		isJobStarted_ = false;
+		// Frames captured for the last modes may be still encoding
+		boolean isAllWritten = finishPipeline(pipeline, deferredCapture) && !isTransferFailed[0];
+		System.out.println(metrics_.getSummary());
+		if (progressListener != null) {
+			if (isAllWritten) {
+				progressListener.onScreenshotJobFinished();
+			} else {
+				progressListener.onScreenshotJobFailed();
+			}
+		}
+	}
+
+	/**
+	 * Pulls screenshots captured to device and passes them to pipeline. Returns false if transfer failed
+	 */
+	private boolean transferDeferredFrames(DeferredCapture<PendingScreenshot> deferredCapture,
+										   final ScreenShotPipeline pipeline,
+										   final ScreenShooterManager.ScreenShotJobProgressListener progressListener) {
+		System.out.println("Pulling screenshots from device: " + deferredCapture.getPendingCount());
+		try {
+			deferredCapture.transfer(new DeferredCapture.TransferListener<PendingScreenshot>() {
+				@Override
+				public void onFrameTransferred(PendingScreenshot screenshot, CapturedFrame frame, long transferNanos) throws InterruptedException {
+					metrics_.record(screenshot.modeTimings_, Phase.TRANSFER, transferNanos);
+					pipeline.submit(frame, screenshot.output_, screenshot.mode_, screenshot.modeTimings_);
+				}
+
+				@Override
+				public void onTransferProgressUpdate(int transferredCount, int totalCount) {
+					if (progressListener instanceof ScreenShooterManager.ScreenShotTransferProgressListener) {
+						((ScreenShooterManager.ScreenShotTransferProgressListener) progressListener)
+								.onScreenshotTransferProgressUpdate(transferredCount, totalCount);
+					}
+				}
+			});
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			isJobStarted_ = false;
+			return false;
+		}
+	}
+
+	/**
+	 * Waits for pipeline to write all captured frames and for post processing, closes archive and journal and flushes
+	 * hash index if they are used. Removes screenshots left on device in deferred transfer mode. Returns false if any
+	 * frame or post processing stage failed
+	 */
+	private boolean finishPipeline(ScreenShotPipeline pipeline, @Nullable DeferredCapture<PendingScreenshot> deferredCapture) {
+		if (deferredCapture != null) {
+			// Shell commands of interrupted thread are aborted, interruption is restored after cleanup
+			boolean isInterrupted = Thread.interrupted();
+			deferredCapture.cleanup();
+			if (isInterrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		boolean isAllWritten;
+		try {
+			isAllWritten = pipeline.finish();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			pipeline.abort();
+			isAllWritten = false;
+		}
+		PostProcessor postProcessor = pipeline.getPostProcessor();
+		if (postProcessor != null) {
+			try {
+				isAllWritten &= postProcessor.awaitCompletion();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				isAllWritten = false;
+			}
+		}
+		ScreenShotArchiveWriter archive = pipeline.getArchive();
+		if (archive != null) {
+			try {
+				archive.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+				isAllWritten = false;
+			}
+		}
+		JobJournal journal = pipeline.getJournal();
+		if (journal != null) {
+			journal.close();
+		}
+		PerceptualHashIndex hashIndex = pipeline.getHashIndex();
+		if (hashIndex != null) {
+			try {
+				hashIndex.flush();
+			} catch (IOException | IllegalStateException e) {
+				// Index is not required for screenshots, job result is not changed
+				e.printStackTrace();
+			}
+		}
+		return isAllWritten;
+	}
+
+	public void resetDeviceDisplay(ScreenShooterManager.CommandStatusListener statusListener) {
+		shellHelper_.resetDeviceDisplay(statusListener);
+	}
+
+	public void stopScreenshotsJob() {
+		isJobStarted_ = false;
+	}
+
+	/**
+	 * Screenshot captured to device storage and waiting for transfer
+	 */
+	private static class PendingScreenshot {
+		private final File output_;
+		private final Mode mode_;
+		private final ModeTimings modeTimings_;
+
+		private PendingScreenshot(File output, Mode mode, ModeTimings modeTimings) {
+			output_ = output;
+			mode_ = mode;
+			modeTimings_ = modeTimings;
+		}
+	}
+
+	private boolean checkIsCancelled(ScreenShooterManager.ScreenShotJobProgressListener progressListener) {
+		if (Thread.currentThread().isInterrupted()) {
+			isJobStarted_ = false;
+		}
+		if (!isJobStarted_) {
+			if (progressListener != null) {
+				progressListener.onScreenshotJobCancelled();
+			}
+			return true;
+		}
+		return false;
+	}
+}
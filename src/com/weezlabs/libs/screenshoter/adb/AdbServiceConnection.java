@@ -0,0 +1,107 @@
+package com.weezlabs.libs.screenshoter.adb;
+
+import com.android.ddmlib.AndroidDebugBridge;
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * Raw connection to a device service through adb server. Used for services ddmlib does not expose as a stream,
+ * e.g. long living "shell:" session or "exec:" binary output.
+ */
+public class AdbServiceConnection implements Closeable {
+	public static final int DEFAULT_ADB_PORT = 5037;
+	public static final int DEFAULT_TIMEOUT_MS = 30000;
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String RESPONSE_OKAY = "OKAY";
+
+	private final Socket socket_;
+
+	private AdbServiceConnection(Socket socket) {
+		socket_ = socket;
+	}
+
+	/**
+	 * Connects to the adb server, switches transport to the device and opens the service
+	 *
+	 * @param serialNumber Device serial number
+	 * @param service      Service request, e.g. "shell:" or "exec:screencap"
+	 * @param timeoutMs    Connect and read timeout. 0 means no timeout
+	 */
+	public static AdbServiceConnection open(@NonNull String serialNumber, @NonNull String service, int timeoutMs) throws IOException {
+		InetSocketAddress address = AndroidDebugBridge.getSocketAddress();
+		if (address == null) {
+			address = new InetSocketAddress("127.0.0.1", DEFAULT_ADB_PORT);
+		}
+		Socket socket = new Socket();
+		try {
+			socket.connect(address, timeoutMs);
+			socket.setSoTimeout(timeoutMs);
+			socket.setTcpNoDelay(true);
+			sendRequest(socket, "host:transport:" + serialNumber);
+			sendRequest(socket, service);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return new AdbServiceConnection(socket);
+	}
+
+	private static void sendRequest(Socket socket, String request) throws IOException {
+		byte[] requestBytes = request.getBytes(CHARSET);
+		OutputStream outputStream = socket.getOutputStream();
+		outputStream.write(String.format("%04x", requestBytes.length).getBytes(CHARSET));
+		outputStream.write(requestBytes);
+		outputStream.flush();
+
+		InputStream inputStream = socket.getInputStream();
+		String response = new String(readFully(inputStream, 4), CHARSET);
+		if (!RESPONSE_OKAY.equals(response)) {
+			String message = "";
+			try {
+				int length = Integer.parseInt(new String(readFully(inputStream, 4), CHARSET), 16);
+				message = new String(readFully(inputStream, length), CHARSET);
+			} catch (IOException | NumberFormatException e) {
+				e.printStackTrace();
+			}
+			throw new IOException("Adb rejected \"" + request + "\": " + response + " " + message);
+		}
+	}
+
+	private static byte[] readFully(InputStream inputStream, int length) throws IOException {
+		byte[] buffer = new byte[length];
+		int read = 0;
+		while (read < length) {
+			int count = inputStream.read(buffer, read, length - read);
+			if (count < 0) {
+				throw new EOFException("Connection closed by adb");
+			}
+			read += count;
+		}
+		return buffer;
+	}
+
+	public InputStream getInputStream() throws IOException {
+		return socket_.getInputStream();
+	}
+
+	public OutputStream getOutputStream() throws IOException {
+		return socket_.getOutputStream();
+	}
+
+	public boolean isClosed() {
+		return socket_.isClosed();
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket_.close();
+	}
+}
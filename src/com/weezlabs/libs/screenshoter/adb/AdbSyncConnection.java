@@ -0,0 +1,119 @@
+package com.weezlabs.libs.screenshoter.adb;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Connection to device's "sync:" service pulling files straight to memory. ddmlib's {@link com.android.ddmlib.SyncService}
+ * pulls only to local files, which costs an extra disk write and read for data which is processed in memory anyway.
+ * Several files are pulled through one connection.
+ * <p/>
+ * Not thread safe.
+ */
+public class AdbSyncConnection implements Closeable {
+	private static final String SERVICE_SYNC = "sync:";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String ID_RECV = "RECV";
+	private static final String ID_DATA = "DATA";
+	private static final String ID_DONE = "DONE";
+	private static final String ID_FAIL = "FAIL";
+	private static final String ID_QUIT = "QUIT";
+	// Sync protocol never sends bigger chunks
+	private static final int MAX_CHUNK_SIZE = 64 * 1024;
+	private static final int HEADER_SIZE = 8;
+
+	private final AdbServiceConnection connection_;
+	private final ByteBuffer header_ = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+	private AdbSyncConnection(AdbServiceConnection connection) {
+		connection_ = connection;
+	}
+
+	/**
+	 * @param serialNumber Device serial number
+	 * @param timeoutMs    Connect and read timeout. 0 means no timeout
+	 */
+	public static AdbSyncConnection open(@NonNull String serialNumber, int timeoutMs) throws IOException {
+		return new AdbSyncConnection(AdbServiceConnection.open(serialNumber, SERVICE_SYNC, timeoutMs));
+	}
+
+	/**
+	 * Pulls file to memory
+	 *
+	 * @param sizeHint Expected file size, so buffer is not grown and copied. 0 if not known
+	 * @return File content, array length is the file size
+	 */
+	public byte[] pull(@NonNull String remotePath, int sizeHint) throws IOException {
+		byte[] path = remotePath.getBytes(CHARSET);
+		header_.clear();
+		header_.put(ID_RECV.getBytes(CHARSET)).putInt(path.length);
+		OutputStream outputStream = connection_.getOutputStream();
+		outputStream.write(header_.array());
+		outputStream.write(path);
+		outputStream.flush();
+
+		InputStream inputStream = connection_.getInputStream();
+		byte[] data = new byte[Math.max(sizeHint, 0)];
+		int length = 0;
+		while (true) {
+			readHeader(inputStream);
+			String id = new String(header_.array(), 0, 4, CHARSET);
+			int chunkSize = header_.getInt(4);
+			if (ID_DONE.equals(id)) {
+				return length == data.length ? data : Arrays.copyOf(data, length);
+			}
+			if (ID_FAIL.equals(id)) {
+				byte[] message = new byte[Math.min(Math.max(chunkSize, 0), MAX_CHUNK_SIZE)];
+				readFully(inputStream, message, 0, message.length);
+				throw new IOException("Cannot pull " + remotePath + ": " + new String(message, CHARSET));
+			}
+			if (!ID_DATA.equals(id) || chunkSize < 0 || chunkSize > MAX_CHUNK_SIZE) {
+				throw new IOException("Unexpected sync response while pulling " + remotePath + ": " + id);
+			}
+			if (data.length - length < chunkSize) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + chunkSize));
+			}
+			readFully(inputStream, data, length, chunkSize);
+			length += chunkSize;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (!connection_.isClosed()) {
+				header_.clear();
+				header_.put(ID_QUIT.getBytes(CHARSET)).putInt(0);
+				connection_.getOutputStream().write(header_.array());
+			}
+		} catch (IOException e) {
+			// Connection is closed anyway
+		} finally {
+			connection_.close();
+		}
+	}
+
+	private void readHeader(InputStream inputStream) throws IOException {
+		readFully(inputStream, header_.array(), 0, HEADER_SIZE);
+	}
+
+	private static void readFully(InputStream inputStream, byte[] buffer, int offset, int length) throws IOException {
+		int read = 0;
+		while (read < length) {
+			int count = inputStream.read(buffer, offset + read, length - read);
+			if (count < 0) {
+				throw new EOFException("Connection closed by adb");
+			}
+			read += count;
+		}
+	}
+}
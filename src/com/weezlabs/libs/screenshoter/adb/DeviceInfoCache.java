@@ -0,0 +1,239 @@
+package com.weezlabs.libs.screenshoter.adb;
+
+import com.android.ddmlib.IDevice;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.model.Device;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches device's physical display params, so they are not requested from device shell on every start.
+ * Entries are keyed by serial number and build fingerprint, so system update invalidates them. Cache is kept in memory
+ * and persisted to a properties file shared by all processes of the user.
+ * <p/>
+ * Only physical params are cached. Params applied on device at the moment are unknown for a cached device.
+ * <p/>
+ * Cache is not used unless it is set with {@link DeviceShellHelper#setDeviceInfoCache(DeviceInfoCache)}. Emulators
+ * reuse serial numbers and AVDs of the same system image share build fingerprint while having different displays, so
+ * cache should be enabled only for physical devices or invalidated when emulators are recreated.
+ */
+public class DeviceInfoCache {
+	public static final long DEFAULT_TTL_MS = TimeUnit.DAYS.toMillis(7);
+	public static final String DEFAULT_CACHE_FILE = ".screenshoter/device-info.properties";
+	private static final String PROP_BUILD_FINGERPRINT = "ro.build.fingerprint";
+	private static final String SUFFIX_DPI = ".dpi";
+	private static final String SUFFIX_RESOLUTION = ".resolution";
+	private static final String SUFFIX_RESOLUTION_EXACT = ".resolutionExact";
+	private static final String SUFFIX_TIME = ".time";
+	private static volatile DeviceInfoCache instance_;
+
+	private final File file_;
+	private final long ttlMs_;
+	private final Properties properties_ = new Properties();
+	// Not a monitor, file I/O under a monitor pins virtual threads to their carriers
+	private final ReentrantLock lock_ = new ReentrantLock();
+	private boolean isLoaded_;
+
+	/**
+	 * @param file  File to persist cache to. Cache is kept in memory only if null
+	 * @param ttlMs Time after which entry is considered stale
+	 */
+	public DeviceInfoCache(File file, long ttlMs) {
+		file_ = file;
+		ttlMs_ = ttlMs;
+	}
+
+	/**
+	 * Returns cache persisted to {@link DeviceInfoCache#DEFAULT_CACHE_FILE} in user's home directory
+	 */
+	public static DeviceInfoCache getInstance() {
+		if (instance_ == null) {
+			synchronized (DeviceInfoCache.class) {
+				if (instance_ == null) {
+					instance_ = new DeviceInfoCache(new File(System.getProperty("user.home"), DEFAULT_CACHE_FILE), DEFAULT_TTL_MS);
+				}
+			}
+		}
+		return instance_;
+	}
+
+	/**
+	 * Returns device with physical params set or null if there is no valid entry for it
+	 */
+	public Device get(@NonNull IDevice iDevice) {
+		lock_.lock();
+		try {
+			String key = getKey(iDevice);
+			if (key == null) {
+				return null;
+			}
+			load();
+			String time = properties_.getProperty(key + SUFFIX_TIME);
+			String dpiValue = properties_.getProperty(key + SUFFIX_DPI);
+			String resolutionName = properties_.getProperty(key + SUFFIX_RESOLUTION);
+			if (time == null || dpiValue == null || resolutionName == null) {
+				return null;
+			}
+			try {
+				if (System.currentTimeMillis() - Long.parseLong(time) > ttlMs_) {
+					return null;
+				}
+				Device.Dpi dpi = Device.Dpi.fromDensity(Integer.parseInt(dpiValue));
+				Device.Resolution resolution = Device.Resolution.valueOf(resolutionName);
+				if (dpi == null) {
+					return null;
+				}
+				Device device = new Device(iDevice);
+				device.setPhysicalDpi(dpi);
+				device.setPhysicalResolution(resolution);
+				device.setPhysicalResolutionExact(Boolean.parseBoolean(properties_.getProperty(key + SUFFIX_RESOLUTION_EXACT)));
+				return device;
+			} catch (IllegalArgumentException e) {
+				// Broken entry, e.g. written by another version
+				return null;
+			}
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Stores device's physical params
+	 */
+	public void put(@NonNull Device device) {
+		lock_.lock();
+		try {
+			String key = getKey(device.getIDevice());
+			if (key == null || device.getPhysicalDpi() == null || device.getPhysicalResolution() == null) {
+				return;
+			}
+			// Pick up entries written by other processes
+			isLoaded_ = false;
+			load();
+			properties_.setProperty(key + SUFFIX_DPI, String.valueOf(device.getPhysicalDpi().getDpiValue()));
+			properties_.setProperty(key + SUFFIX_RESOLUTION, device.getPhysicalResolution().name());
+			properties_.setProperty(key + SUFFIX_RESOLUTION_EXACT, String.valueOf(device.isPhysicalResolutionExact()));
+			properties_.setProperty(key + SUFFIX_TIME, String.valueOf(System.currentTimeMillis()));
+			save();
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	public void invalidate(@NonNull IDevice iDevice) {
+		lock_.lock();
+		try {
+			String key = getKey(iDevice);
+			if (key == null) {
+				return;
+			}
+			isLoaded_ = false;
+			load();
+			properties_.remove(key + SUFFIX_DPI);
+			properties_.remove(key + SUFFIX_RESOLUTION);
+			properties_.remove(key + SUFFIX_RESOLUTION_EXACT);
+			properties_.remove(key + SUFFIX_TIME);
+			save();
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	public void clear() {
+		lock_.lock();
+		try {
+			properties_.clear();
+			isLoaded_ = true;
+			save();
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Returns cache key or null if device's build fingerprint is not known yet
+	 */
+	private static String getKey(IDevice iDevice) {
+		if (iDevice == null) {
+			return null;
+		}
+		String fingerprint = iDevice.getProperty(PROP_BUILD_FINGERPRINT);
+		if (fingerprint == null || fingerprint.isEmpty()) {
+			return null;
+		}
+		// Properties keys cannot contain some chars without escaping, digest keeps keys safe without collisions
+		return iDevice.getSerialNumber().replaceAll("[^A-Za-z0-9._-]", "_") + "." + getDigest(fingerprint);
+	}
+
+	/**
+	 * Returns hex SHA-256 digest of the text
+	 */
+	private static String getDigest(String text) {
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(Charset.forName("UTF-8")));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		StringBuilder builder = new StringBuilder();
+		for (byte value : digest) {
+			builder.append(String.format("%02x", value));
+		}
+		return builder.toString();
+	}
+
+	private void load() {
+		if (isLoaded_) {
+			return;
+		}
+		isLoaded_ = true;
+		if (file_ == null || !file_.exists()) {
+			return;
+		}
+		properties_.clear();
+		try (InputStream inputStream = new FileInputStream(file_)) {
+			properties_.load(inputStream);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void save() {
+		if (file_ == null) {
+			return;
+		}
+		File dir = file_.getAbsoluteFile().getParentFile();
+		if (!dir.exists() && !dir.mkdirs()) {
+			System.out.println("Cannot create device info cache dir: " + dir);
+			return;
+		}
+		try {
+			// Write to a temp file and move it, so other processes never read half written file
+			File tempFile = File.createTempFile(file_.getName(), ".tmp", dir);
+			try {
+				try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+					properties_.store(outputStream, "Screenshoter device info cache");
+				}
+				Files.move(tempFile.toPath(), file_.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tempFile.toPath());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
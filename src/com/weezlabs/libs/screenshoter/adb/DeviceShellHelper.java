@@ -6,16 +6,28 @@ import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.RawImage;
 import com.android.ddmlib.ShellCommandUnresponsiveException;
 import com.android.ddmlib.TimeoutException;
+import com.google.common.annotations.VisibleForTesting;
 import com.sun.javafx.beans.annotations.NonNull;
 import com.weezlabs.libs.screenshoter.ScreenShooterManager;
+import com.weezlabs.libs.screenshoter.capture.CaptureBackend;
+import com.weezlabs.libs.screenshoter.capture.CapturedFrame;
+import com.weezlabs.libs.screenshoter.capture.FramebufferCaptureBackend;
+import com.weezlabs.libs.screenshoter.image.ImageFormat;
+import com.weezlabs.libs.screenshoter.image.PngFormat;
+import com.weezlabs.libs.screenshoter.image.RawImageConverter;
 import com.weezlabs.libs.screenshoter.model.Device;
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-
-import javax.imageio.ImageIO;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Helper to interact with {@link IDevice}'s shell
@@ -36,8 +48,34 @@ public class DeviceShellHelper {
 	private static final String COMMAND_SCREEN_INFO_PRE_18 = "dumpsys window";
 	private static final String TEXT_PHYSICAL_DENSITY = "Physical density: ";
 	private static final String TEXT_PHYSICAL_SIZE = "Physical size: ";
+	private static final String TEXT_OVERRIDE_DENSITY = "Override density: ";
+	private static final String TEXT_OVERRIDE_SIZE = "Override size: ";
+	private static final Pattern PATTERN_INIT = Pattern.compile(TEXT_INIT + "(\\d+)x(\\d+) (\\d+)dpi");
 	private static volatile DeviceShellHelper instance_;
+	private static volatile DeviceInfoCache deviceInfoCache_;
 	private IDevice iDevice_;
+	private Device device_;
+	private volatile InteractiveShellSession interactiveSession_;
+	private volatile CaptureBackend captureBackend_ = new FramebufferCaptureBackend();
+
+	public DeviceShellHelper() {
+	}
+
+	/**
+	 * Creates helper bound to a single device. Use one helper per device to drive several devices at once
+	 */
+	public DeviceShellHelper(IDevice iDevice) {
+		iDevice_ = iDevice;
+	}
+
+	/**
+	 * Creates helper bound to a single device. Display parameters applied on device are tracked in
+	 * {@link Device#getCurrentDpi()} and {@link Device#getCurrentResolution()} and commands which do not change them are skipped
+	 */
+	public DeviceShellHelper(@NonNull Device device) {
+		iDevice_ = device.getIDevice();
+		device_ = device;
+	}
 
 	public static DeviceShellHelper getInstance() {
 		if (instance_ == null) {
@@ -51,61 +89,87 @@ public class DeviceShellHelper {
 	}
 
 	/**
-	 * Requests device's display parameters with different commands depending on API level
+	 * Returns cache used by {@link DeviceShellHelper#getDeviceDisplayInfo(IDevice, DeviceInfoListener)}. Null if disabled
+	 */
+	public static DeviceInfoCache getDeviceInfoCache() {
+		return deviceInfoCache_;
+	}
+
+	/**
+	 * Sets cache of devices' physical display params, e.g. {@link DeviceInfoCache#getInstance()}. Cache is disabled by
+	 * default, pass null to disable it again and always request params from device
+	 */
+	public static void setDeviceInfoCache(DeviceInfoCache deviceInfoCache) {
+		deviceInfoCache_ = deviceInfoCache;
+	}
+
+	/**
+	 * Requests device's display parameters with different commands depending on API level.
+	 * Physical params are taken from {@link DeviceInfoCache} if device was seen before, current params are unknown in this case
 	 */
 	public static void getDeviceDisplayInfo(@NonNull final IDevice iDevice, @NonNull final DeviceInfoListener deviceInfoListener) {
+		final DeviceInfoCache cache = deviceInfoCache_;
+		if (cache != null) {
+			Device device = cache.get(iDevice);
+			if (device != null) {
+				deviceInfoListener.onDeviceInfoUpdated(device);
+				return;
+			}
+		}
+		DeviceInfoListener listener = cache == null ? deviceInfoListener : new DeviceInfoListener() {
+			@Override
+			public void onDeviceInfoUpdated(Device device) {
+				cache.put(device);
+				deviceInfoListener.onDeviceInfoUpdated(device);
+			}
+
+			@Override
+			public void onDeviceUpdateFailed(IDevice iDevice, Exception e) {
+				deviceInfoListener.onDeviceUpdateFailed(iDevice, e);
+			}
+		};
 		if (iDevice.getApiLevel() >= JELLY_BEAN_4_3_LEVEL) {
-			getDeviceInfoPostApi18(iDevice, deviceInfoListener);
+			getDeviceInfoPostApi18(iDevice, listener);
 		} else {
-			getDeviceInfoPreApi18(iDevice, deviceInfoListener);
+			getDeviceInfoPreApi18(iDevice, listener);
 		}
 	}
 
 	private static void getDeviceInfoPreApi18(final IDevice iDevice, final DeviceInfoListener deviceInfoListener) {
 		final Device device = new Device(iDevice);
 		try {
-			iDevice.executeShellCommand(COMMAND_SCREEN_INFO_PRE_18, new IShellOutputReceiver() {
+			iDevice.executeShellCommand(COMMAND_SCREEN_INFO_PRE_18, new LineShellOutputReceiver() {
 				boolean result = false;
 
 				@Override
-				public void addOutput(byte[] bytes, int i, int i1) {
-					try {
-						result = getDeviceInfoFromOutputPreApi18(device, new String(bytes, i, i1, "UTF-8"));
-					} catch (UnsupportedEncodingException e) {
-						e.printStackTrace();
-					}
+				protected boolean processLine(String line) {
+					// The rest of dumpsys output is not needed
+					result = getDeviceInfoFromOutputPreApi18(device, line);
+					return result;
 				}
 
 				@Override
-				public void flush() {
+				protected void onFinished() {
 					if (result) {
 						deviceInfoListener.onDeviceInfoUpdated(device);
 					} else {
 						deviceInfoListener.onDeviceUpdateFailed(iDevice, new Exception("Can't parse size output"));
 					}
 				}
-
-				@Override
-				public boolean isCancelled() {
-					return false;
-				}
 			});
 		} catch (TimeoutException | AdbCommandRejectedException | IOException | ShellCommandUnresponsiveException e) {
 			e.printStackTrace();
+			deviceInfoListener.onDeviceUpdateFailed(iDevice, e);
 		}
 	}
 
-	private static boolean getDeviceInfoFromOutputPreApi18(Device device, String output) {
+	@VisibleForTesting
+	static boolean getDeviceInfoFromOutputPreApi18(Device device, String line) {
 		// Expecting output like "init=480x800 240dpi b"
-		int resolutionStartIndex = output.indexOf(TEXT_INIT);
-		if (resolutionStartIndex != -1) {
-			String resolutionString = output.substring(resolutionStartIndex + TEXT_INIT.length());
-			String width = resolutionString.substring(0, resolutionString.indexOf('x'));
-			String height = resolutionString.substring(resolutionString.indexOf('x') + 1, resolutionString.indexOf(" "));
-			int dpiValue = Integer.valueOf(resolutionString.substring(resolutionString.indexOf(" ") + 1, resolutionString.indexOf("dpi")));
-
-			device.setPhysicalResolution(Device.Resolution.fromSize(Integer.valueOf(width), Integer.valueOf(height)));
-			device.setPhysicalDpi(Device.Dpi.fromDensity(dpiValue));
+		Matcher matcher = PATTERN_INIT.matcher(line);
+		if (matcher.find()) {
+			device.setPhysicalResolution(Device.Resolution.fromSize(Integer.valueOf(matcher.group(1)), Integer.valueOf(matcher.group(2))));
+			device.setPhysicalDpi(Device.Dpi.fromDensity(Integer.valueOf(matcher.group(3))));
 			return true;
 		}
 		return false;
@@ -115,106 +179,126 @@ public class DeviceShellHelper {
 		final Device device = new Device(iDevice);
 		try {
 			// Request device density
-			iDevice.executeShellCommand(COMMAND_WM_DENSITY, new IShellOutputReceiver() {
+			iDevice.executeShellCommand(COMMAND_WM_DENSITY, new LineShellOutputReceiver() {
 				@Override
-				public void addOutput(byte[] bytes, int i, int i1) {
-					try {
-						Device.Dpi dpi = getDpiFromOutputPost18(new String(bytes, i, i1, "UTF-8"));
-						if (dpi != null) {
-							device.setPhysicalDpi(dpi);
-							device.setCurrentDpi(dpi);
-						} else {
-							deviceInfoListener.onDeviceUpdateFailed(iDevice, new Exception("Can't parse density output"));
-						}
-					} catch (UnsupportedEncodingException e) {
-						deviceInfoListener.onDeviceUpdateFailed(iDevice, e);
-						e.printStackTrace();
+				protected boolean processLine(String line) {
+					Device.Dpi dpi = getDpiFromOutputPost18(line);
+					if (dpi != null) {
+						device.setPhysicalDpi(dpi);
+						device.setCurrentDpi(dpi);
+					} else if (line.contains(TEXT_OVERRIDE_DENSITY)) {
+						// Applied density is unknown if override does not match any Dpi
+						device.setCurrentDpi(getOverrideDpiFromOutputPost18(line));
 					}
+					return false;
 				}
-
+			});
+			if (device.getPhysicalDpi() == null) {
+				deviceInfoListener.onDeviceUpdateFailed(iDevice, new Exception("Can't parse density output"));
+				return;
+			}
+			// Request device display size
+			iDevice.executeShellCommand(COMMAND_WM_SIZE, new LineShellOutputReceiver() {
 				@Override
-				public void flush() {
-					try {
-						// Request device display size
-						iDevice.executeShellCommand(COMMAND_WM_SIZE, new IShellOutputReceiver() {
-							@Override
-							public void addOutput(byte[] bytes, int i, int i1) {
-								try {
-									Device.Resolution resolution = getResolutionFromOutputPost18(new String(bytes, i, i1, "UTF-8"));
-									if (resolution != null) {
-										device.setPhysicalResolution(resolution);
-										device.setCurrentResolution(resolution);
-									}
-								} catch (UnsupportedEncodingException e) {
-									e.printStackTrace();
-								}
-							}
-
-							@Override
-							public void flush() {
-								// All done. Sending info to listener
-								if (device.getPhysicalResolution() != null) {
-									deviceInfoListener.onDeviceInfoUpdated(device);
-								} else {
-									deviceInfoListener.onDeviceUpdateFailed(iDevice, new Exception("Can't parse size output"));
-								}
-							}
-
-							@Override
-							public boolean isCancelled() {
-								return false;
-							}
-						});
-					} catch (TimeoutException | AdbCommandRejectedException | IOException | ShellCommandUnresponsiveException e) {
-						e.printStackTrace();
+				protected boolean processLine(String line) {
+					Device.Resolution resolution = getResolutionFromOutputPost18(line);
+					if (resolution != null) {
+						device.setPhysicalResolution(resolution);
+						// Closest resolution is not applied, its modes would be captured without changing size
+						Device.Resolution exactResolution = getExactResolutionFromOutputPost18(line);
+						device.setPhysicalResolutionExact(exactResolution != null);
+						device.setCurrentResolution(exactResolution);
+					} else if (line.contains(TEXT_OVERRIDE_SIZE)) {
+						device.setCurrentResolution(getOverrideResolutionFromOutputPost18(line));
 					}
-				}
-
-				@Override
-				public boolean isCancelled() {
 					return false;
 				}
 			});
-		} catch (TimeoutException | AdbCommandRejectedException | IOException | ShellCommandUnresponsiveException e) {
+			// All done. Sending info to listener
+			if (device.getPhysicalResolution() != null) {
+				deviceInfoListener.onDeviceInfoUpdated(device);
+			} else {
+				deviceInfoListener.onDeviceUpdateFailed(iDevice, new Exception("Can't parse size output"));
+			}
+		} catch (TimeoutException | AdbCommandRejectedException | IOException | ShellCommandUnresponsiveException | NumberFormatException e) {
 			e.printStackTrace();
 			deviceInfoListener.onDeviceUpdateFailed(iDevice, e);
 		}
 	}
 
 	/**
-	 * Parses terminal output and picks up resolution
+	 * Parses terminal output line and picks up resolution
 	 */
-	private static Device.Resolution getResolutionFromOutputPost18(String output) {
-		int index = output.indexOf(TEXT_PHYSICAL_SIZE);
-		if (index != -1) {
-			int lineEndingIndex = output.indexOf("\n");
-			String resolutionString = output.substring(
-					index + TEXT_PHYSICAL_SIZE.length(),
-					lineEndingIndex != -1 ? lineEndingIndex - 1 : output.length()
-			);
-			String width = resolutionString.substring(0, resolutionString.indexOf('x'));
-			String height = resolutionString.substring(resolutionString.indexOf('x') + 1);
-			return Device.Resolution.fromSize(Integer.valueOf(width), Integer.valueOf(height));
-		} else {
+	@VisibleForTesting
+	static Device.Resolution getResolutionFromOutputPost18(String output) {
+		String resolutionString = getLineValue(output, TEXT_PHYSICAL_SIZE);
+		return resolutionString != null ? parseResolution(resolutionString, false) : null;
+	}
+
+	/**
+	 * Parses terminal output line and picks up resolution. Returns null if physical size does not match any
+	 * {@link Device.Resolution} exactly
+	 */
+	private static Device.Resolution getExactResolutionFromOutputPost18(String output) {
+		String resolutionString = getLineValue(output, TEXT_PHYSICAL_SIZE);
+		return resolutionString != null ? parseResolution(resolutionString, true) : null;
+	}
+
+	/**
+	 * Parses terminal output line and picks up density
+	 */
+	@VisibleForTesting
+	static Device.Dpi getDpiFromOutputPost18(String output) {
+		String densityString = getLineValue(output, TEXT_PHYSICAL_DENSITY);
+		return densityString != null ? Device.Dpi.fromDensity(Integer.valueOf(densityString)) : null;
+	}
+
+	/**
+	 * Parses terminal output and picks up overridden resolution. Returns null if there is no override or it does not
+	 * match any {@link Device.Resolution} exactly
+	 */
+	private static Device.Resolution getOverrideResolutionFromOutputPost18(String output) {
+		String resolutionString = getLineValue(output, TEXT_OVERRIDE_SIZE);
+		return resolutionString != null ? parseResolution(resolutionString, true) : null;
+	}
+
+	/**
+	 * Parses terminal output and picks up overridden density. Returns null if there is no override
+	 */
+	private static Device.Dpi getOverrideDpiFromOutputPost18(String output) {
+		String densityString = getLineValue(output, TEXT_OVERRIDE_DENSITY);
+		return densityString != null ? Device.Dpi.fromDensity(Integer.valueOf(densityString)) : null;
+	}
+
+	/**
+	 * Parses "WxH" string
+	 *
+	 * @param isExact Return null if size does not match any resolution exactly instead of the closest one
+	 */
+	private static Device.Resolution parseResolution(String resolutionString, boolean isExact) {
+		int width = Integer.valueOf(resolutionString.substring(0, resolutionString.indexOf('x')));
+		int height = Integer.valueOf(resolutionString.substring(resolutionString.indexOf('x') + 1));
+		Device.Resolution resolution = Device.Resolution.fromSize(width, height);
+		if (isExact && (resolution.getWidth() != width || resolution.getHeight() != height)) {
 			return null;
 		}
+		return resolution;
 	}
 
 	/**
-	 * Parses terminal output and picks up density
+	 * Returns trimmed text between label and the end of its line. Null if there is no such label
 	 */
-	private static Device.Dpi getDpiFromOutputPost18(String output) {
-		int index = output.indexOf(TEXT_PHYSICAL_DENSITY);
-		if (index != -1) {
-			int lineEndingIndex = output.indexOf("\n");
-			String densityString = output.substring(
-					index + TEXT_PHYSICAL_DENSITY.length(),
-					lineEndingIndex != -1 ? lineEndingIndex - 1 : output.length()
-			);
-			return Device.Dpi.fromDensity(Integer.valueOf(densityString));
-		} else {
+	private static String getLineValue(String output, String label) {
+		int index = output.indexOf(label);
+		if (index == -1) {
 			return null;
 		}
+		int lineEndingIndex = output.indexOf('\n', index);
+		return output.substring(index + label.length(), lineEndingIndex != -1 ? lineEndingIndex : output.length()).trim();
+	}
+
+	public IDevice getIDevice() {
+		return iDevice_;
 	}
 
 	public void setIDevice(IDevice iDevice) {
@@ -223,38 +307,138 @@ public class DeviceShellHelper {
 	}
 
 	/**
-	 * Sets up new display parameters
+	 * Enables sending display commands through a single long living shell stream instead of opening a new shell channel
+	 * for every command. Call {@link DeviceShellHelper#close()} when helper is not needed anymore
+	 */
+	public void setUseInteractiveSession(boolean isEnabled) {
+		checkIDevice();
+		InteractiveShellSession session = interactiveSession_;
+		if (isEnabled && session == null) {
+			interactiveSession_ = new InteractiveShellSession(iDevice_.getSerialNumber());
+		} else if (!isEnabled && session != null) {
+			interactiveSession_ = null;
+			session.close();
+		}
+	}
+
+	public CaptureBackend getCaptureBackend() {
+		return captureBackend_;
+	}
+
+	/**
+	 * Sets backend used by {@link DeviceShellHelper#captureFrame()}. Framebuffer service is used by default,
+	 * {@link com.weezlabs.libs.screenshoter.capture.AutoCaptureBackend} picks the fastest backend for the device
+	 */
+	public void setCaptureBackend(@NonNull CaptureBackend captureBackend) {
+		captureBackend_ = captureBackend;
+	}
+
+	public boolean isInteractiveSessionUsed() {
+		return interactiveSession_ != null;
+	}
+
+	/**
+	 * Closes interactive shell session if it was opened
+	 */
+	public void close() {
+		InteractiveShellSession session = interactiveSession_;
+		interactiveSession_ = null;
+		if (session != null) {
+			session.close();
+		}
+	}
+
+	/**
+	 * Returns true if any of the params differs from params applied on device. Always true if applied params are not tracked
+	 */
+	public boolean isDisplayChangeNeeded(Device.Resolution targetResolution, Device.Dpi targetDpi) {
+		return isDensityChangeNeeded(targetDpi) || isResolutionChangeNeeded(targetResolution);
+	}
+
+	private boolean isDensityChangeNeeded(Device.Dpi targetDpi) {
+		return targetDpi != null && (device_ == null || device_.getCurrentDpi() != targetDpi);
+	}
+
+	private boolean isResolutionChangeNeeded(Device.Resolution targetResolution) {
+		return targetResolution != null && (device_ == null || device_.getCurrentResolution() != targetResolution);
+	}
+
+	/**
+	 * Sets up new display parameters. Params which are already applied on device are not sent again.
+	 * Density and size commands are sent in a single shell invocation
 	 */
 	public void setResolutionAndDensity(final Device.Resolution targetResolution, Device.Dpi targetDpi, @NonNull ScreenShooterManager.CommandStatusListener commandSentListener) {
 		System.out.println(String.format("Setting params: size %s dpi %s", targetResolution, targetDpi));
-		if (targetDpi != null) {
-			setUpNewDensity(targetResolution, targetDpi, commandSentListener);
-		} else if (targetResolution != null) {
-			setUpNewResolution(targetResolution, commandSentListener);
-		} else {
+		boolean isDensityChangeNeeded = isDensityChangeNeeded(targetDpi);
+		boolean isResolutionChangeNeeded = isResolutionChangeNeeded(targetResolution);
+		if (!isDensityChangeNeeded && !isResolutionChangeNeeded) {
 			commandSentListener.onCommandSentToDevice();
+			return;
+		}
+		checkIDevice();
+		ShellCommandBatch batch = new ShellCommandBatch();
+		if (isDensityChangeNeeded) {
+			batch.add(getDensityCommand(iDevice_) + targetDpi.getDpiValue());
+		}
+		if (isResolutionChangeNeeded) {
+			batch.add(getSizeCommand(iDevice_) + targetResolution);
+		}
+		ShellCommandBatch.Result result = executeBatch(batch);
+		if (result == null) {
+			forgetAppliedState();
+			commandSentListener.onCommandExecutionFailed();
+			return;
+		}
+		if (device_ != null) {
+			int index = 0;
+			if (isDensityChangeNeeded) {
+				device_.setCurrentDpi(result.isSucceeded(index++) ? targetDpi : null);
+			}
+			if (isResolutionChangeNeeded) {
+				device_.setCurrentResolution(result.isSucceeded(index) ? targetResolution : null);
+			}
+		}
+		if (result.isAllSucceeded()) {
+			commandSentListener.onCommandSentToDevice();
+		} else {
+			commandSentListener.onCommandExecutionFailed();
 		}
 	}
 
 	/**
-	 * Sets up new density and triggers resolution change if needed
+	 * Executes all batch commands in one shell invocation
+	 *
+	 * @return Status of every command. Null if batch could not be sent to device
 	 */
-	private void setUpNewDensity(final Device.Resolution targetResolution, Device.Dpi targetDpi, @NonNull final ScreenShooterManager.CommandStatusListener commandSentListener) {
+	public ShellCommandBatch.Result executeBatch(@NonNull ShellCommandBatch batch) {
 		checkIDevice();
+		CollectingReceiver receiver = new CollectingReceiver();
 		try {
-			iDevice_.executeShellCommand(getDensityCommand(iDevice_) + targetDpi.getDpiValue(), new ShellFlushReceiver() {
-				@Override
-				public void flush() {
-					if (targetResolution != null) {
-						setUpNewResolution(targetResolution, commandSentListener);
-					} else {
-						commandSentListener.onCommandSentToDevice();
-					}
-				}
-			});
-		} catch (TimeoutException | IOException | AdbCommandRejectedException | ShellCommandUnresponsiveException e) {
+			executeShellCommand(batch.build(), receiver);
+		} catch (TimeoutException | AdbCommandRejectedException | IOException | ShellCommandUnresponsiveException e) {
 			e.printStackTrace();
-			commandSentListener.onCommandExecutionFailed();
+			return null;
+		}
+		ShellCommandBatch.Result result = batch.parse(receiver.getOutput());
+		for (int i = 0; i < batch.getCommands().size(); i++) {
+			if (!result.isSucceeded(i)) {
+				System.out.println("Command failed: " + batch.getCommands().get(i) + " status " + result.getStatus(i)
+						+ (result.getOutput(i) != null ? " output: " + result.getOutput(i).trim() : ""));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Executes display command through interactive session if it is enabled or through a new shell channel otherwise
+	 */
+	private void executeShellCommand(String command, IShellOutputReceiver receiver)
+			throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+		InteractiveShellSession session = interactiveSession_;
+		if (session != null) {
+			session.executeShellCommand(command, receiver);
+		} else {
+			iDevice_.executeShellCommand(command, receiver);
 		}
 	}
 
@@ -287,107 +471,99 @@ public class DeviceShellHelper {
 	}
 
 	/**
-	 * Sets up new resolution
+	 * Applied display params are unknown after failed command. Next change will send all commands
 	 */
-	private void setUpNewResolution(Device.Resolution targetResolution, @NonNull final ScreenShooterManager.CommandStatusListener commandSentListener) {
-		checkIDevice();
-		try {
-			iDevice_.executeShellCommand(getSizeCommand(iDevice_) + targetResolution, new ShellFlushReceiver() {
-				@Override
-				public void flush() {
-					commandSentListener.onCommandSentToDevice();
-				}
-			});
-		} catch (TimeoutException | AdbCommandRejectedException | IOException | ShellCommandUnresponsiveException e) {
-			e.printStackTrace();
-			commandSentListener.onCommandExecutionFailed();
+	private void forgetAppliedState() {
+		if (device_ != null) {
+			device_.setCurrentDpi(null);
+			device_.setCurrentResolution(null);
 		}
 	}
 
 	/**
-	 * Makes screenshot and saves it to a file
+	 * Makes screenshot and saves it to a png file
 	 */
 	public boolean makeScreenshot(@NonNull File output) {
-		checkIDevice();
-		RawImage rawImage;
-		try {
-			rawImage = iDevice_.getScreenshot();
-		} catch (TimeoutException e) {
-			e.printStackTrace();
-			return false;
-		} catch (AdbCommandRejectedException e) {
-			e.printStackTrace();
+		return makeScreenshot(output, new PngFormat());
+	}
+
+	/**
+	 * Makes screenshot and saves it to a file in the given format
+	 */
+	public boolean makeScreenshot(@NonNull File output, @NonNull ImageFormat imageFormat) {
+		CapturedFrame frame = captureFrame();
+		if (frame == null) {
 			return false;
+		}
+
+		try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(output))) {
+			if (frame.isPng() && imageFormat instanceof PngFormat) {
+				// Encoded on device already
+				outputStream.write(frame.getPngData(), 0, frame.getPngLength());
+				return true;
+			}
+			BufferedImage bufferedImage = frame.isPng()
+					? new PngFormat().decode(new ByteArrayInputStream(frame.getPngData(), 0, frame.getPngLength()))
+					: RawImageConverter.convert(frame.getRawImage());
+			imageFormat.encode(bufferedImage, outputStream);
+			return true;
 		} catch (IOException e) {
 			e.printStackTrace();
 			return false;
 		}
-		if (rawImage == null) {
-			return false;
-		}
+	}
 
-		BufferedImage bufferedImage = new BufferedImage(rawImage.width, rawImage.height, BufferedImage.TYPE_INT_ARGB);
-		int index = 0;
-		int indexIncBytes = rawImage.bpp >> 3;
-		for (int y = 0; y < rawImage.height; y++) {
-			for (int x = 0; x < rawImage.width; x++) {
-				int value = rawImage.getARGB(index);
-				index += indexIncBytes;
-				bufferedImage.setRGB(x, y, value);
-			}
-		}
+	/**
+	 * Captures device's screen with the capture backend. Returns null if failed
+	 */
+	public CapturedFrame captureFrame() {
+		checkIDevice();
 		try {
-			if (ImageIO.write(bufferedImage, "png", output)) {
-				return true;
-			} else {
-				return false;
-			}
+			return captureBackend_.capture(iDevice_);
 		} catch (IOException e) {
 			e.printStackTrace();
-			return false;
+			return null;
 		}
 	}
 
-	public void resetDeviceDisplay(final ScreenShooterManager.CommandStatusListener commandListener) {
+	/**
+	 * Pulls device's framebuffer. Capture backend is not used. Returns null if failed
+	 */
+	public RawImage captureRawImage() {
 		checkIDevice();
 		try {
-			// Reset display resolution
-			iDevice_.executeShellCommand(getSizeResetCommand(iDevice_), new ShellFlushReceiver() {
-				@Override
-				public void flush() {
-					try {
-						// Reset display density
-						iDevice_.executeShellCommand(getDensityResetCommand(iDevice_), new ShellFlushReceiver() {
-							@Override
-							public void flush() {
-								try {
-									// Need to reset display density twice to make system UI looks perfect
-									iDevice_.executeShellCommand(getDensityResetCommand(iDevice_), new ShellFlushReceiver() {
-										@Override
-										public void flush() {
-											if (commandListener != null) {
-												commandListener.onCommandSentToDevice();
-											}
-										}
-									});
-								} catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException e) {
-									e.printStackTrace();
-									if (commandListener != null) {
-										commandListener.onCommandExecutionFailed();
-									}
-								}
-							}
-						});
-					} catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException e) {
-						e.printStackTrace();
-						if (commandListener != null) {
-							commandListener.onCommandExecutionFailed();
-						}
-					}
-				}
-			});
-		} catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException e) {
+			return iDevice_.getScreenshot();
+		} catch (TimeoutException e) {
 			e.printStackTrace();
+			return null;
+		} catch (AdbCommandRejectedException e) {
+			e.printStackTrace();
+			return null;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public void resetDeviceDisplay(final ScreenShooterManager.CommandStatusListener commandListener) {
+		checkIDevice();
+		ShellCommandBatch batch = new ShellCommandBatch()
+				.add(getSizeResetCommand(iDevice_))
+				.add(getDensityResetCommand(iDevice_))
+				// Need to reset display density twice to make system UI looks perfect
+				.add(getDensityResetCommand(iDevice_));
+		ShellCommandBatch.Result result = executeBatch(batch);
+		if (result != null && result.isAllSucceeded()) {
+			if (device_ != null) {
+				device_.setCurrentDpi(device_.getPhysicalDpi());
+				// Display is at its physical size, which is known as a resolution only if it matches one exactly
+				device_.setCurrentResolution(device_.isPhysicalResolutionExact() ? device_.getPhysicalResolution() : null);
+			}
+			if (commandListener != null) {
+				commandListener.onCommandSentToDevice();
+			}
+		} else {
+			forgetAppliedState();
 			if (commandListener != null) {
 				commandListener.onCommandExecutionFailed();
 			}
@@ -410,11 +586,18 @@ public class DeviceShellHelper {
 	}
 
 	/**
-	 * Receives only flush event. use if you do not need to do anything on other events
+	 * Collects whole command output. Chunks are decoded together, so multi byte chars split between chunks are not broken
 	 */
-	private abstract class ShellFlushReceiver implements IShellOutputReceiver {
+	private static class CollectingReceiver implements IShellOutputReceiver {
+		private final ByteArrayOutputStream output_ = new ByteArrayOutputStream();
+
 		@Override
-		public void addOutput(byte[] bytes, int i, int i1) {
+		public void addOutput(byte[] bytes, int offset, int length) {
+			output_.write(bytes, offset, length);
+		}
+
+		@Override
+		public void flush() {
 
 		}
 
@@ -422,5 +605,13 @@ public class DeviceShellHelper {
 		public boolean isCancelled() {
 			return false;
 		}
+
+		public String getOutput() {
+			try {
+				return output_.toString("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+		}
 	}
 }
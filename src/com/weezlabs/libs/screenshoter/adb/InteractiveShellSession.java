@@ -0,0 +1,162 @@
+package com.weezlabs.libs.screenshoter.adb;
+
+import com.android.ddmlib.IShellOutputReceiver;
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps one "adb shell" stream open and sends commands through it, so small commands do not pay for opening a new
+ * shell channel every time. Every command is followed by a unique sentinel with its exit status, output is read up to
+ * the sentinel. Commands are executed one by one.
+ * <p/>
+ * If the stream drops, session reconnects and sends the command once more. Use it only for idempotent commands like
+ * wm/am display commands.
+ */
+public class InteractiveShellSession implements Closeable {
+	public static final int DEFAULT_TIMEOUT_MS = 30000;
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String SERVICE_SHELL = "shell:";
+	private static final String SENTINEL_PREFIX = "__SCREENSHOTER_DONE_";
+	// Interactive shell echoes input and prints prompt, both are disabled when session starts
+	private static final String COMMAND_SETUP = "stty -echo 2>/dev/null; PS1=''; PS2=''";
+	private static final Pattern SENTINEL_PATTERN = Pattern.compile(SENTINEL_PREFIX + "(\\d+):(\\d+)$");
+
+	private final String serialNumber_;
+	private final int timeoutMs_;
+	private final ReentrantLock lock_ = new ReentrantLock();
+	private final AtomicLong commandId_ = new AtomicLong();
+	private AdbServiceConnection connection_;
+	private InputStream inputStream_;
+	private OutputStream outputStream_;
+
+	public InteractiveShellSession(@NonNull String serialNumber) {
+		this(serialNumber, DEFAULT_TIMEOUT_MS);
+	}
+
+	/**
+	 * @param serialNumber Device serial number
+	 * @param timeoutMs    Max time to wait for command output
+	 */
+	public InteractiveShellSession(@NonNull String serialNumber, int timeoutMs) {
+		serialNumber_ = serialNumber;
+		timeoutMs_ = timeoutMs;
+	}
+
+	/**
+	 * Executes command and passes its output to the receiver. Output is passed as a whole when command is finished
+	 *
+	 * @return Command's exit status
+	 */
+	public int executeShellCommand(@NonNull String command, @NonNull IShellOutputReceiver receiver) throws IOException {
+		lock_.lock();
+		try {
+			try {
+				return execute(command, receiver);
+			} catch (SocketTimeoutException e) {
+				// Command is hung, reconnecting does not help
+				disconnect();
+				throw e;
+			} catch (IOException e) {
+				System.out.println("Shell session dropped, reconnecting: " + e.getMessage());
+				disconnect();
+				return execute(command, receiver);
+			}
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	private int execute(String command, IShellOutputReceiver receiver) throws IOException {
+		if (connection_ == null) {
+			connect();
+		}
+		long id = commandId_.incrementAndGet();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		int status = sendAndRead(command, id, output);
+		byte[] bytes = output.toByteArray();
+		if (bytes.length > 0) {
+			receiver.addOutput(bytes, 0, bytes.length);
+		}
+		receiver.flush();
+		return status;
+	}
+
+	private void connect() throws IOException {
+		connection_ = AdbServiceConnection.open(serialNumber_, SERVICE_SHELL, timeoutMs_);
+		inputStream_ = new BufferedInputStream(connection_.getInputStream());
+		outputStream_ = connection_.getOutputStream();
+		sendAndRead(COMMAND_SETUP, commandId_.incrementAndGet(), null);
+	}
+
+	/**
+	 * Sends command followed by the sentinel and reads output lines until the sentinel
+	 *
+	 * @param output Receives output lines. Nothing is collected if null
+	 * @return Command's exit status
+	 */
+	private int sendAndRead(String command, long id, ByteArrayOutputStream output) throws IOException {
+		String sentinel = SENTINEL_PREFIX + id + ":";
+		outputStream_.write((command + "; echo " + sentinel + "$?\n").getBytes(CHARSET));
+		outputStream_.flush();
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		while (true) {
+			int value = inputStream_.read();
+			if (value == -1) {
+				throw new IOException("Shell stream closed");
+			}
+			if (value != '\n') {
+				line.write(value);
+				continue;
+			}
+			String text = new String(line.toByteArray(), CHARSET).trim();
+			line.reset();
+			if (text.contains(sentinel)) {
+				Matcher matcher = SENTINEL_PATTERN.matcher(text);
+				if (matcher.find() && Long.parseLong(matcher.group(1)) == id) {
+					return Integer.parseInt(matcher.group(2));
+				}
+				// Echo of the command itself. Appears before echo is disabled
+				continue;
+			}
+			if (output != null) {
+				byte[] bytes = (text + "\n").getBytes(CHARSET);
+				output.write(bytes, 0, bytes.length);
+			}
+		}
+	}
+
+	private void disconnect() {
+		if (connection_ != null) {
+			try {
+				connection_.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		connection_ = null;
+		inputStream_ = null;
+		outputStream_ = null;
+	}
+
+	@Override
+	public void close() {
+		lock_.lock();
+		try {
+			disconnect();
+		} finally {
+			lock_.unlock();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.weezlabs.libs.screenshoter.adb;
+
+import com.android.ddmlib.IShellOutputReceiver;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits shell output into lines as it arrives. Raw chunks are scanned for line endings, incomplete line is kept
+ * until the next chunk, so lines split between chunks are parsed correctly. Receiver cancels reading as soon as
+ * {@link LineShellOutputReceiver#processLine(String)} reports that everything needed was found.
+ * <p/>
+ * Note that ddmlib does not call {@link IShellOutputReceiver#flush()} for cancelled commands,
+ * use {@link LineShellOutputReceiver#onFinished()} to handle the result.
+ */
+public abstract class LineShellOutputReceiver implements IShellOutputReceiver {
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final int INITIAL_LINE_CAPACITY = 256;
+
+	private byte[] lineBuffer_ = new byte[INITIAL_LINE_CAPACITY];
+	private int lineLength_;
+	private boolean isDone_;
+	private boolean isFinished_;
+
+	@Override
+	public final void addOutput(byte[] bytes, int offset, int length) {
+		int lineStart = offset;
+		int end = offset + length;
+		for (int i = offset; i < end && !isDone_; i++) {
+			if (bytes[i] == '\n') {
+				appendToLine(bytes, lineStart, i - lineStart);
+				lineStart = i + 1;
+				emitLine();
+			}
+		}
+		if (!isDone_ && lineStart < end) {
+			appendToLine(bytes, lineStart, end - lineStart);
+		}
+		if (isDone_) {
+			finish();
+		}
+	}
+
+	@Override
+	public final void flush() {
+		if (!isDone_ && lineLength_ > 0) {
+			emitLine();
+		}
+		finish();
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return isDone_;
+	}
+
+	/**
+	 * Called for every line of output without line ending
+	 *
+	 * @return true if output is not needed anymore and reading can be stopped
+	 */
+	protected abstract boolean processLine(String line);
+
+	/**
+	 * Called once when all output was read or reading was stopped by {@link LineShellOutputReceiver#processLine(String)}
+	 */
+	protected void onFinished() {
+	}
+
+	private void appendToLine(byte[] bytes, int offset, int length) {
+		if (lineLength_ + length > lineBuffer_.length) {
+			lineBuffer_ = Arrays.copyOf(lineBuffer_, Math.max(lineBuffer_.length * 2, lineLength_ + length));
+		}
+		System.arraycopy(bytes, offset, lineBuffer_, lineLength_, length);
+		lineLength_ += length;
+	}
+
+	private void emitLine() {
+		int length = lineLength_;
+		if (length > 0 && lineBuffer_[length - 1] == '\r') {
+			length--;
+		}
+		String line = new String(lineBuffer_, 0, length, CHARSET);
+		lineLength_ = 0;
+		isDone_ = processLine(line);
+	}
+
+	private void finish() {
+		if (!isFinished_) {
+			isFinished_ = true;
+			onFinished();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.weezlabs.libs.screenshoter.adb;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Combines dependent shell commands into a single shell invocation. Every command runs only if the previous one
+ * succeeded and prints its exit status after a marker, so status of each command can be picked up from combined output.
+ */
+public class ShellCommandBatch {
+	public static final int STATUS_NOT_EXECUTED = -1;
+	private static final String STATUS_MARKER = "__SCREENSHOTER_STATUS_";
+	private static final String STATUS_VARIABLE = "screenshoter_status";
+	private static final String TEXT_ERROR = "Error:";
+
+	private final List<String> commands_ = new ArrayList<>();
+
+	public ShellCommandBatch add(@NonNull String command) {
+		commands_.add(command);
+		return this;
+	}
+
+	public List<String> getCommands() {
+		return Collections.unmodifiableList(commands_);
+	}
+
+	public boolean isEmpty() {
+		return commands_.isEmpty();
+	}
+
+	/**
+	 * Builds single shell command. For two commands it looks like:<br>
+	 * <code>cmd0; s=$?; echo M0:$s; if [ $s -eq 0 ]; then cmd1; s=$?; echo M1:$s; fi</code>
+	 */
+	public String build() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < commands_.size(); i++) {
+			if (i > 0) {
+				builder.append("; if [ $").append(STATUS_VARIABLE).append(" -eq 0 ]; then ");
+			}
+			builder.append(commands_.get(i))
+					.append("; ").append(STATUS_VARIABLE).append("=$?; echo ")
+					.append(STATUS_MARKER).append(i).append(":$").append(STATUS_VARIABLE);
+		}
+		for (int i = 1; i < commands_.size(); i++) {
+			builder.append("; fi");
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Picks up exit status of every command from combined output. Command printed "Error:" is considered failed
+	 * even with zero status, old wm and am versions do not set exit status
+	 */
+	public Result parse(@NonNull String output) {
+		int[] statuses = new int[commands_.size()];
+		String[] outputs = new String[commands_.size()];
+		for (int i = 0; i < statuses.length; i++) {
+			statuses[i] = STATUS_NOT_EXECUTED;
+		}
+		StringBuilder commandOutput = new StringBuilder();
+		for (String line : output.split("\n")) {
+			String trimmedLine = line.trim();
+			if (trimmedLine.startsWith(STATUS_MARKER)) {
+				int separatorIndex = trimmedLine.indexOf(':');
+				try {
+					int index = Integer.parseInt(trimmedLine.substring(STATUS_MARKER.length(), separatorIndex));
+					int status = Integer.parseInt(trimmedLine.substring(separatorIndex + 1));
+					if (index >= 0 && index < statuses.length) {
+						String text = commandOutput.toString();
+						statuses[index] = status == 0 && text.contains(TEXT_ERROR) ? 1 : status;
+						outputs[index] = text;
+					}
+				} catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+					e.printStackTrace();
+				}
+				commandOutput.setLength(0);
+			} else {
+				commandOutput.append(trimmedLine).append('\n');
+			}
+		}
+		return new Result(statuses, outputs);
+	}
+
+	public static class Result {
+		private final int[] statuses_;
+		private final String[] outputs_;
+
+		private Result(int[] statuses, String[] outputs) {
+			statuses_ = statuses;
+			outputs_ = outputs;
+		}
+
+		/**
+		 * Returns exit status of the command or {@link ShellCommandBatch#STATUS_NOT_EXECUTED}
+		 */
+		public int getStatus(int commandIndex) {
+			return statuses_[commandIndex];
+		}
+
+		public boolean isSucceeded(int commandIndex) {
+			return statuses_[commandIndex] == 0;
+		}
+
+		/**
+		 * Returns output of the command without status marker. Null if command was not executed
+		 */
+		public String getOutput(int commandIndex) {
+			return outputs_[commandIndex];
+		}
+
+		public boolean isAllSucceeded() {
+			for (int status : statuses_) {
+				if (status != 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
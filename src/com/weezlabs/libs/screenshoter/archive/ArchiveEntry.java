@@ -0,0 +1,51 @@
+package com.weezlabs.libs.screenshoter.archive;
+
+import com.sun.istack.internal.Nullable;
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+/**
+ * Index entry of a frame stored in screenshots archive
+ */
+public class ArchiveEntry {
+	private final String name_;
+	private final Mode mode_;
+	private final long offset_;
+	private final long length_;
+
+	ArchiveEntry(String name, @Nullable Mode mode, long offset, long length) {
+		name_ = name;
+		mode_ = mode;
+		offset_ = offset;
+		length_ = length;
+	}
+
+	/**
+	 * Returns file name frame would have if it was written as a separate file
+	 */
+	public String getName() {
+		return name_;
+	}
+
+	/**
+	 * Returns mode frame was captured in. Null if unknown
+	 */
+	public Mode getMode() {
+		return mode_;
+	}
+
+	/**
+	 * Returns position of encoded frame in archive file
+	 */
+	public long getOffset() {
+		return offset_;
+	}
+
+	public long getLength() {
+		return length_;
+	}
+
+	@Override
+	public String toString() {
+		return name_ + " [" + offset_ + ", " + length_ + "]";
+	}
+}
@@ -0,0 +1,152 @@
+package com.weezlabs.libs.screenshoter.archive;
+
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.model.Device;
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads archives written by {@link ScreenShotArchiveWriter}. Frames are returned as read only buffers mapped straight
+ * from the archive file, nothing is copied until the buffer is read.
+ */
+public class ScreenShotArchiveReader implements Closeable {
+	private final RandomAccessFile randomAccessFile_;
+	private final FileChannel channel_;
+	private final List<ArchiveEntry> entries_;
+
+	public ScreenShotArchiveReader(@NonNull File file) throws IOException {
+		randomAccessFile_ = new RandomAccessFile(file, "r");
+		channel_ = randomAccessFile_.getChannel();
+		try {
+			entries_ = readIndex();
+		} catch (IOException | RuntimeException e) {
+			randomAccessFile_.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns entries in the order frames were written
+	 */
+	public List<ArchiveEntry> getEntries() {
+		return entries_;
+	}
+
+	/**
+	 * Returns entry with the given name or null
+	 */
+	public ArchiveEntry getEntry(@NonNull String name) {
+		for (ArchiveEntry entry : entries_) {
+			if (entry.getName().equals(name)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the first entry captured in the given mode or null
+	 */
+	public ArchiveEntry getEntry(@NonNull Mode mode) {
+		for (ArchiveEntry entry : entries_) {
+			if (mode.equals(entry.getMode())) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Maps encoded frame. Buffer stays valid after the reader is closed
+	 */
+	public ByteBuffer getFrame(@NonNull ArchiveEntry entry) throws IOException {
+		return channel_.map(FileChannel.MapMode.READ_ONLY, entry.getOffset(), entry.getLength()).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Writes every frame to a separate file named after its entry
+	 */
+	public void extractAll(@NonNull File directory) throws IOException {
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		for (ArchiveEntry entry : entries_) {
+			try (FileOutputStream outputStream = new FileOutputStream(new File(directory, entry.getName()))) {
+				FileChannel outputChannel = outputStream.getChannel();
+				long position = 0;
+				while (position < entry.getLength()) {
+					position += channel_.transferTo(entry.getOffset() + position, entry.getLength() - position, outputChannel);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		randomAccessFile_.close();
+	}
+
+	private List<ArchiveEntry> readIndex() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(ScreenShotArchiveWriter.HEADER_SIZE);
+		readFully(header, 0);
+		header.flip();
+		byte[] magic = new byte[ScreenShotArchiveWriter.MAGIC.length];
+		header.get(magic);
+		if (!Arrays.equals(magic, ScreenShotArchiveWriter.MAGIC)) {
+			throw new IOException("Not a screenshots archive or archive was not closed");
+		}
+		int version = header.getInt();
+		if (version != ScreenShotArchiveWriter.VERSION) {
+			throw new IOException("Unsupported archive version " + version);
+		}
+		long indexOffset = header.getLong();
+		int indexLength = header.getInt();
+		int entriesCount = header.getInt();
+		if (indexOffset < ScreenShotArchiveWriter.HEADER_SIZE || indexLength < 0 || indexOffset + indexLength > channel_.size()) {
+			throw new IOException("Archive index is corrupted");
+		}
+
+		ByteBuffer index = ByteBuffer.allocate(indexLength);
+		readFully(index, indexOffset);
+		DataInputStream indexInput = new DataInputStream(new ByteArrayInputStream(index.array()));
+		List<ArchiveEntry> entries = new ArrayList<>(entriesCount);
+		for (int i = 0; i < entriesCount; i++) {
+			String name = indexInput.readUTF();
+			String resolution = indexInput.readUTF();
+			String density = indexInput.readUTF();
+			long offset = indexInput.readLong();
+			long length = indexInput.readLong();
+			if (offset < ScreenShotArchiveWriter.HEADER_SIZE || length < 0 || offset + length > indexOffset) {
+				throw new IOException("Wrong entry bounds: " + name);
+			}
+			Mode mode = resolution.isEmpty() || density.isEmpty()
+					? null
+					: new Mode(Device.Resolution.valueOf(resolution), Device.Dpi.valueOf(density));
+			entries.add(new ArchiveEntry(name, mode, offset, length));
+		}
+		return Collections.unmodifiableList(entries);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int count = channel_.read(buffer, position);
+			if (count < 0) {
+				throw new IOException("Archive is truncated");
+			}
+			position += count;
+		}
+	}
+}
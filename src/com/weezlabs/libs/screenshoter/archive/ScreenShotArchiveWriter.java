@@ -0,0 +1,217 @@
+package com.weezlabs.libs.screenshoter.archive;
+
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes all frames of a job into one archive file instead of a file per frame. File is pre-sized and frames are
+ * copied to a memory mapped region, which is extended by another mapped window when it is full. Index of frames is
+ * written after the frames on {@link ScreenShotArchiveWriter#close()}, archive cannot be read before that.
+ * <p/>
+ * File layout, big endian:<br>
+ * header: "SSAR" magic, version int, index offset long, index length int, entries count int, 8 reserved bytes<br>
+ * frames one after another<br>
+ * index: for every entry name UTF, resolution name UTF, density name UTF (empty if mode is unknown), offset long, length long
+ * <p/>
+ * Methods are thread safe.
+ */
+public class ScreenShotArchiveWriter implements Closeable {
+	public static final String EXTENSION = "ssar";
+	public static final long DEFAULT_INITIAL_SIZE = 64 * 1024 * 1024;
+	static final byte[] MAGIC = {'S', 'S', 'A', 'R'};
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	private static final long MIN_WINDOW_SIZE = 16 * 1024 * 1024;
+
+	private final File file_;
+	private final RandomAccessFile randomAccessFile_;
+	private final FileChannel channel_;
+	private final List<ArchiveEntry> entries_ = new ArrayList<>();
+	private final Map<String, ArchiveEntry> entriesByName_ = new HashMap<>();
+	// Not a monitor, mapped file I/O under a monitor pins virtual threads to their carriers
+	private final ReentrantLock lock_ = new ReentrantLock();
+	private MappedByteBuffer window_;
+	private long windowStart_;
+	private long position_ = HEADER_SIZE;
+	private boolean isClosed_;
+
+	public ScreenShotArchiveWriter(@NonNull File file) throws IOException {
+		this(file, DEFAULT_INITIAL_SIZE);
+	}
+
+	/**
+	 * Creates archive. Existing file is replaced
+	 *
+	 * @param initialSize Size file is pre-allocated with. Unused tail is cut on close
+	 */
+	public ScreenShotArchiveWriter(@NonNull File file, long initialSize) throws IOException {
+		if (initialSize < HEADER_SIZE) {
+			throw new IllegalArgumentException("Initial size is too small");
+		}
+		file_ = file;
+		randomAccessFile_ = new RandomAccessFile(file, "rw");
+		channel_ = randomAccessFile_.getChannel();
+		try {
+			channel_.truncate(0);
+			// Header stays empty until index is written, so unfinished archive is not mistaken for a valid one
+			window_ = channel_.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(initialSize, Integer.MAX_VALUE));
+			windowStart_ = 0;
+		} catch (IOException e) {
+			randomAccessFile_.close();
+			throw e;
+		}
+	}
+
+	public File getFile() {
+		return file_;
+	}
+
+	/**
+	 * Appends encoded frame
+	 *
+	 * @param name Entry name, must be unique within archive
+	 * @param mode Mode frame was captured in. Null if unknown
+	 */
+	public ArchiveEntry append(@NonNull String name, @Nullable Mode mode, @NonNull byte[] data, int offset, int length) throws IOException {
+		lock_.lock();
+		try {
+			checkNotClosed();
+			if (entriesByName_.containsKey(name)) {
+				throw new IllegalArgumentException("Entry already exists: " + name);
+			}
+			ensureWindow(length);
+			window_.position((int) (position_ - windowStart_));
+			window_.put(data, offset, length);
+			ArchiveEntry entry = new ArchiveEntry(name, mode, position_, length);
+			position_ += length;
+			addEntry(entry);
+			return entry;
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Adds entry pointing to the data of already appended entry. Used for identical frames
+	 */
+	public ArchiveEntry addAlias(@NonNull String name, @Nullable Mode mode, @NonNull String originalName) throws IOException {
+		lock_.lock();
+		try {
+			checkNotClosed();
+			ArchiveEntry original = entriesByName_.get(originalName);
+			if (original == null) {
+				throw new IllegalArgumentException("No entry " + originalName);
+			}
+			if (entriesByName_.containsKey(name)) {
+				throw new IllegalArgumentException("Entry already exists: " + name);
+			}
+			ArchiveEntry entry = new ArchiveEntry(name, mode, original.getOffset(), original.getLength());
+			addEntry(entry);
+			return entry;
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	public boolean hasEntry(@NonNull String name) {
+		lock_.lock();
+		try {
+			return entriesByName_.containsKey(name);
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Writes index and header and closes file
+	 */
+	@Override
+	public void close() throws IOException {
+		lock_.lock();
+		try {
+			if (isClosed_) {
+				return;
+			}
+			isClosed_ = true;
+			try {
+				window_.force();
+				window_ = null;
+
+				ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+				DataOutputStream indexOutput = new DataOutputStream(indexBytes);
+				for (ArchiveEntry entry : entries_) {
+					Mode mode = entry.getMode();
+					indexOutput.writeUTF(entry.getName());
+					indexOutput.writeUTF(mode != null ? mode.getResolution().name() : "");
+					indexOutput.writeUTF(mode != null ? mode.getDensity().name() : "");
+					indexOutput.writeLong(entry.getOffset());
+					indexOutput.writeLong(entry.getLength());
+				}
+				writeFully(ByteBuffer.wrap(indexBytes.toByteArray()), position_);
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.put(MAGIC).putInt(VERSION).putLong(position_).putInt(indexBytes.size()).putInt(entries_.size());
+				header.clear();
+				writeFully(header, 0);
+				channel_.force(true);
+				try {
+					channel_.truncate(position_ + indexBytes.size());
+				} catch (IOException e) {
+					// Some systems cannot truncate file which is still mapped. Tail after the index is ignored by readers
+					System.out.println("Cannot cut archive tail: " + e.getMessage());
+				}
+			} finally {
+				randomAccessFile_.close();
+			}
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	private void addEntry(ArchiveEntry entry) {
+		entries_.add(entry);
+		entriesByName_.put(entry.getName(), entry);
+	}
+
+	/**
+	 * Maps a new window starting at the current position if the current one cannot fit length bytes
+	 */
+	private void ensureWindow(int length) throws IOException {
+		long windowEnd = windowStart_ + window_.capacity();
+		if (position_ + length <= windowEnd) {
+			return;
+		}
+		window_.force();
+		long size = Math.min(Integer.MAX_VALUE, Math.max(length, Math.max(MIN_WINDOW_SIZE, window_.capacity())));
+		window_ = channel_.map(FileChannel.MapMode.READ_WRITE, position_, size);
+		windowStart_ = position_;
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel_.write(buffer, position);
+		}
+	}
+
+	private void checkNotClosed() {
+		if (isClosed_) {
+			throw new IllegalStateException("Archive is closed");
+		}
+	}
+}
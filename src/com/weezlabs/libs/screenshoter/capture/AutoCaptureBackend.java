@@ -0,0 +1,107 @@
+package com.weezlabs.libs.screenshoter.capture;
+
+import com.android.ddmlib.IDevice;
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Picks the fastest backend for every device. On the first capture from a device every candidate captures a frame and
+ * the one which returned frame in the shortest time is used for the device from then on. Frame captured during probe
+ * is returned, so probe does not cost an extra capture.
+ * <p/>
+ * Probe compares capture time only. Raw frames still need encoding on host, which is done in background by the pipeline.
+ */
+public class AutoCaptureBackend implements CaptureBackend {
+	public static final String NAME = "auto";
+
+	private final List<CaptureBackend> candidates_;
+	private final ConcurrentMap<String, CaptureBackend> selectedBackends_ = new ConcurrentHashMap<>();
+
+	/**
+	 * Chooses between framebuffer, screencap raw and screencap PNG backends
+	 */
+	public AutoCaptureBackend() {
+		this(Arrays.<CaptureBackend>asList(new FramebufferCaptureBackend(), new ScreencapRawCaptureBackend(), new ScreencapPngCaptureBackend()));
+	}
+
+	/**
+	 * @param candidates Backends to choose from
+	 */
+	public AutoCaptureBackend(@NonNull List<CaptureBackend> candidates) {
+		if (candidates.isEmpty()) {
+			throw new IllegalArgumentException("At least one candidate is needed");
+		}
+		candidates_ = Collections.unmodifiableList(new ArrayList<>(candidates));
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	public List<CaptureBackend> getCandidates() {
+		return candidates_;
+	}
+
+	/**
+	 * Returns backend chosen for the device or null if device was not probed yet
+	 */
+	public CaptureBackend getSelectedBackend(@NonNull IDevice iDevice) {
+		return selectedBackends_.get(iDevice.getSerialNumber());
+	}
+
+	/**
+	 * Forgets choice for the device, so it is probed again on the next capture
+	 */
+	public void reset(@NonNull IDevice iDevice) {
+		selectedBackends_.remove(iDevice.getSerialNumber());
+	}
+
+	@Override
+	public CapturedFrame capture(@NonNull IDevice iDevice) throws IOException {
+		CaptureBackend backend = selectedBackends_.get(iDevice.getSerialNumber());
+		if (backend != null) {
+			return backend.capture(iDevice);
+		}
+		return probe(iDevice);
+	}
+
+	private CapturedFrame probe(IDevice iDevice) throws IOException {
+		CaptureBackend bestBackend = null;
+		CapturedFrame bestFrame = null;
+		long bestTime = Long.MAX_VALUE;
+		IOException lastException = null;
+		for (CaptureBackend candidate : candidates_) {
+			if (Thread.currentThread().isInterrupted()) {
+				break;
+			}
+			long startTime = System.nanoTime();
+			try {
+				CapturedFrame frame = candidate.capture(iDevice);
+				long time = System.nanoTime() - startTime;
+				System.out.println("Capture backend " + candidate.getName() + " took " + time / 1000000 + " ms");
+				if (time < bestTime) {
+					bestTime = time;
+					bestBackend = candidate;
+					bestFrame = frame;
+				}
+			} catch (IOException e) {
+				System.out.println("Capture backend " + candidate.getName() + " is not available: " + e.getMessage());
+				lastException = e;
+			}
+		}
+		if (bestBackend == null) {
+			throw lastException != null ? lastException : new IOException("Capture probe was interrupted");
+		}
+		System.out.println("Using capture backend " + bestBackend.getName() + " for " + iDevice.getSerialNumber());
+		selectedBackends_.put(iDevice.getSerialNumber(), bestBackend);
+		return bestFrame;
+	}
+}
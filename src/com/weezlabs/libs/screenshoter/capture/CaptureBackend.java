@@ -0,0 +1,24 @@
+package com.weezlabs.libs.screenshoter.capture;
+
+import com.android.ddmlib.IDevice;
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Way of pulling device's screen content. Implementations must be thread safe, one backend can be used for several
+ * devices at the same time.
+ */
+public interface CaptureBackend {
+	/**
+	 * Returns short name used in logs
+	 */
+	String getName();
+
+	/**
+	 * Captures device's screen
+	 *
+	 * @throws IOException if frame could not be captured, including the case when device does not support the backend
+	 */
+	CapturedFrame capture(@NonNull IDevice iDevice) throws IOException;
+}
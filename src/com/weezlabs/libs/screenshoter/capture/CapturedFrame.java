@@ -0,0 +1,59 @@
+package com.weezlabs.libs.screenshoter.capture;
+
+import com.android.ddmlib.RawImage;
+import com.sun.javafx.beans.annotations.NonNull;
+
+/**
+ * Frame captured by {@link CaptureBackend}. Holds either raw framebuffer pixels or PNG bytes encoded on device.
+ */
+public final class CapturedFrame {
+	private final RawImage rawImage_;
+	private final byte[] pngData_;
+	private final int pngLength_;
+
+	private CapturedFrame(RawImage rawImage, byte[] pngData, int pngLength) {
+		rawImage_ = rawImage;
+		pngData_ = pngData;
+		pngLength_ = pngLength;
+	}
+
+	public static CapturedFrame fromRawImage(@NonNull RawImage rawImage) {
+		return new CapturedFrame(rawImage, null, 0);
+	}
+
+	/**
+	 * @param pngData   Buffer with PNG file bytes. Not copied
+	 * @param pngLength Number of PNG bytes at the start of the buffer
+	 */
+	public static CapturedFrame fromPng(@NonNull byte[] pngData, int pngLength) {
+		if (pngLength < 0 || pngLength > pngData.length) {
+			throw new IllegalArgumentException("Wrong PNG length");
+		}
+		return new CapturedFrame(null, pngData, pngLength);
+	}
+
+	/**
+	 * Returns true if frame holds PNG bytes instead of raw pixels
+	 */
+	public boolean isPng() {
+		return pngData_ != null;
+	}
+
+	/**
+	 * Returns raw pixels. Null for PNG frame
+	 */
+	public RawImage getRawImage() {
+		return rawImage_;
+	}
+
+	/**
+	 * Returns buffer with PNG bytes. Null for raw frame
+	 */
+	public byte[] getPngData() {
+		return pngData_;
+	}
+
+	public int getPngLength() {
+		return pngLength_;
+	}
+}
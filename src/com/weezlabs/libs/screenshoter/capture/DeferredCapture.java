@@ -0,0 +1,183 @@
+package com.weezlabs.libs.screenshoter.capture;
+
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.adb.AdbServiceConnection;
+import com.weezlabs.libs.screenshoter.adb.AdbSyncConnection;
+import com.weezlabs.libs.screenshoter.adb.DeviceShellHelper;
+import com.weezlabs.libs.screenshoter.adb.ShellCommandBatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Captures screenshots to device storage with "screencap -p" and pulls them later in one batch through device's sync
+ * service straight to memory. Capturing to device takes only the time of encoding, transfer is moved out of the path between mode
+ * changes. Captured files are kept in a directory created for this capture and removed by {@link DeferredCapture#cleanup()}.
+ * <p/>
+ * Not thread safe, frames are captured and transferred by the job's thread.
+ *
+ * @param <T> Type of tag identifying frame when it is transferred
+ */
+public class DeferredCapture<T> {
+	public static final String DEFAULT_REMOTE_ROOT = "/data/local/tmp";
+	public static final long DEFAULT_MAX_PENDING_BYTES = 128L * 1024 * 1024;
+	// Counted for a frame if file size cannot be read from device
+	private static final long ESTIMATED_FRAME_SIZE = 4L * 1024 * 1024;
+	private static final String REMOTE_DIR_PREFIX = "screenshoter-";
+
+	private final DeviceShellHelper shellHelper_;
+	private final String remoteDir_;
+	private final long maxPendingBytes_;
+	private final List<PendingFrame<T>> pendingFrames_ = new ArrayList<>();
+	private long pendingBytes_;
+	private int framesCount_;
+	private boolean isRemoteDirCreated_;
+
+	/**
+	 * @param shellHelper     Helper of the device to capture screenshots on
+	 * @param maxPendingBytes Size of not transferred screenshots on device which makes {@link DeferredCapture#isFull()} true
+	 */
+	public DeferredCapture(@NonNull DeviceShellHelper shellHelper, long maxPendingBytes) {
+		this(shellHelper, DEFAULT_REMOTE_ROOT, maxPendingBytes);
+	}
+
+	/**
+	 * @param remoteRoot Device directory writable by shell user. Capture's own directory is created in it
+	 */
+	public DeferredCapture(@NonNull DeviceShellHelper shellHelper, @NonNull String remoteRoot, long maxPendingBytes) {
+		if (maxPendingBytes <= 0) {
+			throw new IllegalArgumentException("maxPendingBytes must be positive");
+		}
+		shellHelper_ = shellHelper;
+		remoteDir_ = remoteRoot + "/" + REMOTE_DIR_PREFIX + System.currentTimeMillis() + "-" + System.identityHashCode(this);
+		maxPendingBytes_ = maxPendingBytes;
+	}
+
+	public String getRemoteDir() {
+		return remoteDir_;
+	}
+
+	/**
+	 * Captures screenshot to device storage
+	 *
+	 * @param tag Passed back when the frame is transferred
+	 * @return false if screenshot was not captured
+	 */
+	public boolean capture(@NonNull T tag) {
+		String remotePath = remoteDir_ + "/" + (framesCount_++) + ".png";
+		ShellCommandBatch batch = new ShellCommandBatch();
+		if (!isRemoteDirCreated_) {
+			batch.add("mkdir -p " + remoteDir_);
+		}
+		int captureIndex = batch.getCommands().size();
+		batch.add("screencap -p " + remotePath)
+				.add("wc -c < " + remotePath);
+		ShellCommandBatch.Result result = shellHelper_.executeBatch(batch);
+		if (result == null || !result.isSucceeded(captureIndex)) {
+			return false;
+		}
+		isRemoteDirCreated_ = true;
+		int size = 0;
+		if (result.isSucceeded(captureIndex + 1)) {
+			try {
+				size = Integer.parseInt(result.getOutput(captureIndex + 1).trim());
+			} catch (NumberFormatException e) {
+				// Old toolbox without wc, estimate is used
+			}
+		}
+		pendingFrames_.add(new PendingFrame<>(remotePath, size, tag));
+		pendingBytes_ += size > 0 ? size : ESTIMATED_FRAME_SIZE;
+		return true;
+	}
+
+	/**
+	 * Returns true if screenshots waiting for transfer reached size threshold
+	 */
+	public boolean isFull() {
+		return pendingBytes_ >= maxPendingBytes_;
+	}
+
+	public int getPendingCount() {
+		return pendingFrames_.size();
+	}
+
+	/**
+	 * Pulls all captured screenshots and removes them from device. Frames are passed to the listener one by one
+	 * as soon as they are pulled. Frames which were not pulled because of error are dropped
+	 */
+	public void transfer(@NonNull TransferListener<T> listener) throws IOException, InterruptedException {
+		if (pendingFrames_.isEmpty()) {
+			return;
+		}
+		List<PendingFrame<T>> frames = new ArrayList<>(pendingFrames_);
+		pendingFrames_.clear();
+		pendingBytes_ = 0;
+		// Frames are pulled to memory, they are decoded or written by the pipeline anyway
+		try (AdbSyncConnection connection = AdbSyncConnection.open(shellHelper_.getIDevice().getSerialNumber(),
+				AdbServiceConnection.DEFAULT_TIMEOUT_MS)) {
+			for (int i = 0; i < frames.size(); i++) {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				PendingFrame<T> frame = frames.get(i);
+				long startTime = System.nanoTime();
+				byte[] data = connection.pull(frame.remotePath_, frame.size_);
+				listener.onFrameTransferred(frame.tag_, CapturedFrame.fromPng(data, data.length), System.nanoTime() - startTime);
+				listener.onTransferProgressUpdate(i + 1, frames.size());
+			}
+		} finally {
+			removeRemoteFiles(frames);
+		}
+	}
+
+	/**
+	 * Removes capture's directory from device with all files left in it
+	 */
+	public void cleanup() {
+		pendingFrames_.clear();
+		pendingBytes_ = 0;
+		if (isRemoteDirCreated_) {
+			ShellCommandBatch.Result result = shellHelper_.executeBatch(new ShellCommandBatch().add("rm -rf " + remoteDir_));
+			if (result == null || !result.isAllSucceeded()) {
+				System.out.println("Cannot remove screenshots from device: " + remoteDir_);
+			}
+			isRemoteDirCreated_ = false;
+		}
+	}
+
+	private void removeRemoteFiles(List<PendingFrame<T>> frames) {
+		StringBuilder command = new StringBuilder("rm -f");
+		for (PendingFrame<T> frame : frames) {
+			command.append(' ').append(frame.remotePath_);
+		}
+		ShellCommandBatch.Result result = shellHelper_.executeBatch(new ShellCommandBatch().add(command.toString()));
+		if (result == null || !result.isAllSucceeded()) {
+			System.out.println("Cannot remove transferred screenshots from device");
+		}
+	}
+
+	public interface TransferListener<T> {
+		/**
+		 * Called for every pulled frame
+		 *
+		 * @param transferNanos Time frame was pulled for
+		 */
+		void onFrameTransferred(T tag, CapturedFrame frame, long transferNanos) throws InterruptedException;
+
+		void onTransferProgressUpdate(int transferredCount, int totalCount);
+	}
+
+	private static class PendingFrame<T> {
+		private final String remotePath_;
+		// 0 if not known
+		private final int size_;
+		private final T tag_;
+
+		private PendingFrame(String remotePath, int size, T tag) {
+			remotePath_ = remotePath;
+			size_ = size;
+			tag_ = tag;
+		}
+	}
+}
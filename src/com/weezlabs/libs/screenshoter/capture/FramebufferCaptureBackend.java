@@ -0,0 +1,36 @@
+package com.weezlabs.libs.screenshoter.capture;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.RawImage;
+import com.android.ddmlib.TimeoutException;
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Pulls raw pixels through adb framebuffer service with {@link IDevice#getScreenshot()}. Works on every API level,
+ * but is slow on recent Android versions. Pull is aborted when capturing thread is interrupted.
+ */
+public class FramebufferCaptureBackend implements CaptureBackend {
+	public static final String NAME = "framebuffer";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public CapturedFrame capture(@NonNull IDevice iDevice) throws IOException {
+		RawImage rawImage;
+		try {
+			rawImage = iDevice.getScreenshot();
+		} catch (TimeoutException | AdbCommandRejectedException e) {
+			throw new IOException(e);
+		}
+		if (rawImage == null) {
+			throw new IOException("Framebuffer service returned no image");
+		}
+		return CapturedFrame.fromRawImage(rawImage);
+	}
+}
@@ -0,0 +1,61 @@
+package com.weezlabs.libs.screenshoter.capture;
+
+import com.android.ddmlib.IDevice;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.adb.AdbServiceConnection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Takes PNG encoded on device by "screencap -p". Transfer is several times smaller than raw pixels and PNG bytes can be
+ * written to disk as is, but encoding on device is slow. Requires API 21 for "exec:" service.
+ */
+public class ScreencapPngCaptureBackend implements CaptureBackend {
+	public static final String NAME = "screencap-png";
+	private static final String SERVICE = "exec:screencap -p";
+	private static final int INITIAL_BUFFER_SIZE = 512 * 1024;
+	private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+	private final int timeoutMs_;
+
+	public ScreencapPngCaptureBackend() {
+		this(AdbServiceConnection.DEFAULT_TIMEOUT_MS);
+	}
+
+	/**
+	 * @param timeoutMs Connect and read timeout
+	 */
+	public ScreencapPngCaptureBackend(int timeoutMs) {
+		timeoutMs_ = timeoutMs;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public CapturedFrame capture(@NonNull IDevice iDevice) throws IOException {
+		if (iDevice.getApiLevel() < ScreencapRawCaptureBackend.MIN_API_LEVEL) {
+			throw new IOException("Screencap streaming requires API " + ScreencapRawCaptureBackend.MIN_API_LEVEL);
+		}
+		byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+		int length = 0;
+		try (AdbServiceConnection connection = AdbServiceConnection.open(iDevice.getSerialNumber(), SERVICE, timeoutMs_)) {
+			InputStream inputStream = connection.getInputStream();
+			int count;
+			while ((count = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+				length += count;
+				if (length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+			}
+		}
+		if (length < PNG_SIGNATURE.length || !Arrays.equals(Arrays.copyOf(buffer, PNG_SIGNATURE.length), PNG_SIGNATURE)) {
+			throw new IOException("Screencap did not return PNG");
+		}
+		return CapturedFrame.fromPng(buffer, length);
+	}
+}
@@ -0,0 +1,118 @@
+package com.weezlabs.libs.screenshoter.capture;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.RawImage;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.adb.AdbServiceConnection;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Streams raw output of device's screencap binary through "exec:" service straight into {@link RawImage} pixel buffer.
+ * Output is not processed by a terminal, so it is binary safe. Requires API 21, as "exec:" service is missing on older
+ * devices.
+ * <p/>
+ * Screencap output starts with little endian width, height and pixel format. Since Android P format is followed by
+ * color space.
+ */
+public class ScreencapRawCaptureBackend implements CaptureBackend {
+	public static final String NAME = "screencap-raw";
+	public static final int MIN_API_LEVEL = 21;
+	private static final int PIE_API_LEVEL = 28;
+	private static final String SERVICE = "exec:screencap";
+	// android.graphics.PixelFormat values
+	private static final int FORMAT_RGBA_8888 = 1;
+	private static final int FORMAT_RGBX_8888 = 2;
+	private static final int FORMAT_RGB_565 = 4;
+	private static final int FORMAT_BGRA_8888 = 5;
+
+	private final int timeoutMs_;
+
+	public ScreencapRawCaptureBackend() {
+		this(AdbServiceConnection.DEFAULT_TIMEOUT_MS);
+	}
+
+	/**
+	 * @param timeoutMs Connect and read timeout
+	 */
+	public ScreencapRawCaptureBackend(int timeoutMs) {
+		timeoutMs_ = timeoutMs;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public CapturedFrame capture(@NonNull IDevice iDevice) throws IOException {
+		if (iDevice.getApiLevel() < MIN_API_LEVEL) {
+			throw new IOException("Screencap streaming requires API " + MIN_API_LEVEL);
+		}
+		try (AdbServiceConnection connection = AdbServiceConnection.open(iDevice.getSerialNumber(), SERVICE, timeoutMs_)) {
+			DataInputStream inputStream = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+			RawImage rawImage = new RawImage();
+			rawImage.version = 1;
+			rawImage.width = Integer.reverseBytes(inputStream.readInt());
+			rawImage.height = Integer.reverseBytes(inputStream.readInt());
+			int format = Integer.reverseBytes(inputStream.readInt());
+			if (iDevice.getApiLevel() >= PIE_API_LEVEL) {
+				// Color space
+				inputStream.readInt();
+			}
+			if (rawImage.width <= 0 || rawImage.height <= 0) {
+				throw new IOException("Wrong screencap size " + rawImage.width + "x" + rawImage.height);
+			}
+			setLayout(rawImage, format);
+			rawImage.size = rawImage.width * rawImage.height * (rawImage.bpp >> 3);
+			rawImage.data = new byte[rawImage.size];
+			inputStream.readFully(rawImage.data);
+			return CapturedFrame.fromRawImage(rawImage);
+		}
+	}
+
+	/**
+	 * Sets bits per pixel and channel offsets the way ddmlib describes framebuffer layouts
+	 */
+	private static void setLayout(RawImage rawImage, int format) throws IOException {
+		switch (format) {
+			case FORMAT_RGBA_8888:
+				rawImage.bpp = 32;
+				setChannels(rawImage, 0, 8, 16, 8, 24, 8);
+				break;
+			case FORMAT_RGBX_8888:
+				rawImage.bpp = 32;
+				setChannels(rawImage, 0, 8, 16, 8, 0, 0);
+				break;
+			case FORMAT_BGRA_8888:
+				rawImage.bpp = 32;
+				setChannels(rawImage, 16, 8, 0, 8, 24, 8);
+				break;
+			case FORMAT_RGB_565:
+				rawImage.bpp = 16;
+				rawImage.red_offset = 11;
+				rawImage.red_length = 5;
+				rawImage.green_offset = 5;
+				rawImage.green_length = 6;
+				rawImage.blue_offset = 0;
+				rawImage.blue_length = 5;
+				break;
+			default:
+				throw new IOException("Unsupported screencap pixel format " + format);
+		}
+	}
+
+	private static void setChannels(RawImage rawImage, int redOffset, int redLength, int blueOffset, int blueLength,
+									int alphaOffset, int alphaLength) {
+		rawImage.red_offset = redOffset;
+		rawImage.red_length = redLength;
+		rawImage.green_offset = 8;
+		rawImage.green_length = 8;
+		rawImage.blue_offset = blueOffset;
+		rawImage.blue_length = blueLength;
+		rawImage.alpha_offset = alphaOffset;
+		rawImage.alpha_length = alphaLength;
+	}
+}
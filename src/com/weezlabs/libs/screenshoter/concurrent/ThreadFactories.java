@@ -0,0 +1,67 @@
+package com.weezlabs.libs.screenshoter.concurrent;
+
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates thread factories for library's executors. Virtual threads are looked up with reflection, so library still
+ * runs on JDKs without them.
+ */
+public final class ThreadFactories {
+	private static final boolean IS_VIRTUAL_THREADS_SUPPORTED = hasMethod(Thread.class, "ofVirtual");
+
+	private ThreadFactories() {
+	}
+
+	/**
+	 * Returns factory of daemon platform threads named prefix + number
+	 */
+	public static ThreadFactory newPlatformThreadFactory(@NonNull final String namePrefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger count_ = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, namePrefix + count_.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Returns factory of virtual threads named prefix + number or null if JDK does not support virtual threads
+	 */
+	@Nullable
+	public static ThreadFactory newVirtualThreadFactory(@NonNull String namePrefix) {
+		if (!isVirtualThreadsSupported()) {
+			return null;
+		}
+		try {
+			// Thread.ofVirtual().name(namePrefix, 1).factory()
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public static boolean isVirtualThreadsSupported() {
+		return IS_VIRTUAL_THREADS_SUPPORTED;
+	}
+
+	private static boolean hasMethod(Class<?> clazz, String name) {
+		try {
+			clazz.getMethod(name);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.weezlabs.libs.screenshoter.diff;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Regions of a screenshot ignored by comparison, e.g. status bar clock or animated content. Regions are in pixels of
+ * the compared image, so mask is usually set per mode.
+ */
+public class DiffMask {
+	private final List<Rectangle> regions_ = new ArrayList<>();
+
+	/**
+	 * Adds ignored region. Parts outside of the image are not used
+	 */
+	public DiffMask addRegion(int x, int y, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Region size must be positive");
+		}
+		regions_.add(new Rectangle(x, y, width, height));
+		return this;
+	}
+
+	public List<Rectangle> getRegions() {
+		return Collections.unmodifiableList(regions_);
+	}
+
+	public boolean isEmpty() {
+		return regions_.isEmpty();
+	}
+
+	/**
+	 * Returns number of image's pixels covered by regions. Overlapping regions are counted once
+	 */
+	long getMaskedPixelsCount(int width, int height) {
+		List<Rectangle> regions = getRegionsIn(new Rectangle(0, 0, width, height));
+		if (regions.isEmpty()) {
+			return 0;
+		}
+		long count = 0;
+		List<Rectangle> rowRegions = new ArrayList<>();
+		for (int y = 0; y < height; y++) {
+			rowRegions.clear();
+			for (Rectangle region : regions) {
+				if (y >= region.y && y < region.y + region.height) {
+					rowRegions.add(region);
+				}
+			}
+			if (rowRegions.isEmpty()) {
+				continue;
+			}
+			// Row is split into spans of regions sorted by start, overlapping spans are merged
+			Collections.sort(rowRegions, new Comparator<Rectangle>() {
+				@Override
+				public int compare(Rectangle region1, Rectangle region2) {
+					return Integer.compare(region1.x, region2.x);
+				}
+			});
+			int spanStart = rowRegions.get(0).x;
+			int spanEnd = spanStart;
+			for (Rectangle region : rowRegions) {
+				if (region.x > spanEnd) {
+					count += spanEnd - spanStart;
+					spanStart = region.x;
+				}
+				spanEnd = Math.max(spanEnd, region.x + region.width);
+			}
+			count += spanEnd - spanStart;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns regions intersecting the area clipped to it
+	 */
+	List<Rectangle> getRegionsIn(Rectangle area) {
+		List<Rectangle> regions = new ArrayList<>();
+		for (Rectangle region : regions_) {
+			Rectangle intersection = region.intersection(area);
+			if (!intersection.isEmpty()) {
+				regions.add(intersection);
+			}
+		}
+		return regions;
+	}
+}
@@ -0,0 +1,125 @@
+package com.weezlabs.libs.screenshoter.diff;
+
+import com.sun.istack.internal.Nullable;
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of comparing mode's screenshot with its baseline
+ */
+public class DiffResult {
+	private final Mode mode_;
+	private final Status status_;
+	private final File baseline_;
+	private final long differentPixels_;
+	private final long comparedPixels_;
+	private final boolean isStoppedEarly_;
+	private final List<Rectangle> differentTiles_;
+	private final File diffImage_;
+
+	DiffResult(Mode mode, Status status, File baseline, long differentPixels, long comparedPixels, boolean isStoppedEarly,
+			   List<Rectangle> differentTiles, File diffImage) {
+		mode_ = mode;
+		status_ = status;
+		baseline_ = baseline;
+		differentPixels_ = differentPixels;
+		comparedPixels_ = comparedPixels;
+		isStoppedEarly_ = isStoppedEarly;
+		differentTiles_ = Collections.unmodifiableList(differentTiles);
+		diffImage_ = diffImage;
+	}
+
+	static DiffResult of(Mode mode, Status status, File baseline) {
+		return new DiffResult(mode, status, baseline, 0, 0, false, Collections.<Rectangle>emptyList(), null);
+	}
+
+	public Mode getMode() {
+		return mode_;
+	}
+
+	public Status getStatus() {
+		return status_;
+	}
+
+	/**
+	 * Returns true if screenshot matches baseline within threshold
+	 */
+	public boolean isMatched() {
+		return status_ == Status.MATCHED;
+	}
+
+	public File getBaseline() {
+		return baseline_;
+	}
+
+	/**
+	 * Returns number of different pixels. If comparison was stopped early, it is the number found before stop
+	 */
+	public long getDifferentPixels() {
+		return differentPixels_;
+	}
+
+	/**
+	 * Returns number of compared pixels, masked pixels are not counted. Not all pixels are compared if comparison
+	 * was stopped early
+	 */
+	public long getComparedPixels() {
+		return comparedPixels_;
+	}
+
+	/**
+	 * Returns true if comparison was stopped as soon as mismatch threshold was exceeded
+	 */
+	public boolean isStoppedEarly() {
+		return isStoppedEarly_;
+	}
+
+	/**
+	 * Returns bounds of tiles containing different pixels
+	 */
+	public List<Rectangle> getDifferentTiles() {
+		return differentTiles_;
+	}
+
+	/**
+	 * Returns image highlighting different pixels or null if it was not written
+	 */
+	@Nullable
+	public File getDiffImage() {
+		return diffImage_;
+	}
+
+	@Override
+	public String toString() {
+		return mode_.getResolution() + "_" + mode_.getDensity() + ": " + status_
+				+ (comparedPixels_ > 0 ? ", different pixels " + differentPixels_ + " of " + comparedPixels_ : "")
+				+ (isStoppedEarly_ ? " (stopped early)" : "");
+	}
+
+	public enum Status {
+		/**
+		 * Different pixels are within threshold
+		 */
+		MATCHED,
+		/**
+		 * Different pixels exceed threshold
+		 */
+		MISMATCHED,
+		/**
+		 * Screenshot and baseline have different sizes
+		 */
+		SIZE_MISMATCHED,
+		/**
+		 * There is no baseline for the mode
+		 */
+		BASELINE_MISSING,
+		/**
+		 * Screenshot or baseline could not be read
+		 */
+		FAILED
+	}
+}
@@ -0,0 +1,408 @@
+package com.weezlabs.libs.screenshoter.diff;
+
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.ScreenShooterManager;
+import com.weezlabs.libs.screenshoter.image.ImageFormat;
+import com.weezlabs.libs.screenshoter.image.PngFormat;
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares screenshots with baselines captured before. Baseline of a mode is the file named the same way as job's
+ * screenshots are named in baseline directory.
+ * <p/>
+ * Image is split into square tiles which are compared in parallel on a {@link ForkJoinPool}. Tiles stop as soon as
+ * number of different pixels exceeds the threshold, so a clearly broken screenshot does not cost a full pass. Full
+ * pass is done when diff images are written.
+ * <p/>
+ * Engine can be set to {@link com.weezlabs.libs.screenshoter.ScreenShotSession#setVisualDiff(VisualDiffEngine)}
+ * to compare frames as soon as they are captured, or used directly on files written before.
+ */
+public class VisualDiffEngine {
+	public static final int DEFAULT_TILE_SIZE = 64;
+	public static final String DIFF_IMAGE_PREFIX = "diff_";
+	private static final int DIFF_COLOR = 0xFFFF0000;
+	private static final int MASK_COLOR = 0xFF4060C0;
+
+	private final File baselineDir_;
+	private final String baselinePrefix_;
+	private final ForkJoinPool pool_;
+	private final Map<Mode, DiffMask> modeMasks_ = new ConcurrentHashMap<>();
+	private volatile DiffMask defaultMask_;
+	private volatile ImageFormat baselineFormat_ = new PngFormat();
+	private volatile int tileSize_ = DEFAULT_TILE_SIZE;
+	private volatile int colorTolerance_;
+	private volatile double mismatchThreshold_;
+	private volatile File diffImagesDir_;
+	private volatile DiffListener diffListener_;
+
+	/**
+	 * Creates engine running comparisons on its own pool with a thread per processor
+	 *
+	 * @param baselinePrefix Prefix of baseline files. {@link ScreenShooterManager#DEFAULT_SCREENSHOTS_PREFIX} if null
+	 */
+	public VisualDiffEngine(@NonNull File baselineDir, @Nullable String baselinePrefix) {
+		this(baselineDir, baselinePrefix, new ForkJoinPool());
+	}
+
+	public VisualDiffEngine(@NonNull File baselineDir, @Nullable String baselinePrefix, @NonNull ForkJoinPool pool) {
+		baselineDir_ = baselineDir;
+		baselinePrefix_ = baselinePrefix != null ? baselinePrefix : ScreenShooterManager.DEFAULT_SCREENSHOTS_PREFIX;
+		pool_ = pool;
+	}
+
+	/**
+	 * Returns file baseline of the mode is read from
+	 */
+	public File getBaselineFile(@NonNull Mode mode) {
+		return new File(baselineDir_, baselinePrefix_ + mode.getResolution() + "_" + mode.getDensity() + "." + baselineFormat_.getFileExtension());
+	}
+
+	/**
+	 * Sets format baselines are stored in. PNG is used by default
+	 */
+	public void setBaselineFormat(@NonNull ImageFormat baselineFormat) {
+		baselineFormat_ = baselineFormat;
+	}
+
+	/**
+	 * Sets mask used for modes without own mask
+	 */
+	public void setDefaultMask(@Nullable DiffMask mask) {
+		defaultMask_ = mask;
+	}
+
+	/**
+	 * Sets mask used for the mode instead of default one. Mask is removed if null
+	 */
+	public void setMask(@NonNull Mode mode, @Nullable DiffMask mask) {
+		if (mask != null) {
+			modeMasks_.put(mode, mask);
+		} else {
+			modeMasks_.remove(mode);
+		}
+	}
+
+	public int getTileSize() {
+		return tileSize_;
+	}
+
+	/**
+	 * Sets size of square tiles compared as separate tasks
+	 */
+	public void setTileSize(int tileSize) {
+		if (tileSize < 1) {
+			throw new IllegalArgumentException("tileSize must be positive");
+		}
+		tileSize_ = tileSize;
+	}
+
+	public int getColorTolerance() {
+		return colorTolerance_;
+	}
+
+	/**
+	 * Sets max difference of a color channel at which pixels are still considered equal. 0 by default
+	 */
+	public void setColorTolerance(int colorTolerance) {
+		if (colorTolerance < 0 || colorTolerance > 255) {
+			throw new IllegalArgumentException("colorTolerance must be in 0..255");
+		}
+		colorTolerance_ = colorTolerance;
+	}
+
+	public double getMismatchThreshold() {
+		return mismatchThreshold_;
+	}
+
+	/**
+	 * Sets share of compared pixels which may differ while screenshot still matches baseline. Pixels covered by mask
+	 * are not compared and not counted. 0 by default, so any different pixel is a mismatch
+	 */
+	public void setMismatchThreshold(double mismatchThreshold) {
+		if (mismatchThreshold < 0 || mismatchThreshold > 1) {
+			throw new IllegalArgumentException("mismatchThreshold must be in 0..1");
+		}
+		mismatchThreshold_ = mismatchThreshold;
+	}
+
+	/**
+	 * Sets directory diff images of mismatched modes are written to. Diff images are not written if null
+	 */
+	public void setDiffImagesDir(@Nullable File diffImagesDir) {
+		diffImagesDir_ = diffImagesDir;
+	}
+
+	/**
+	 * Sets listener notified about every comparison. Called from the thread running comparison
+	 */
+	public void setDiffListener(@Nullable DiffListener diffListener) {
+		diffListener_ = diffListener;
+	}
+
+	/**
+	 * Compares screenshot file with mode's baseline
+	 */
+	public DiffResult compare(@NonNull Mode mode, @NonNull File screenshot, @NonNull ImageFormat format) {
+		BufferedImage image;
+		try (InputStream inputStream = new FileInputStream(screenshot)) {
+			image = format.decode(inputStream);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return notify(DiffResult.of(mode, DiffResult.Status.FAILED, getBaselineFile(mode)));
+		}
+		return compare(mode, image);
+	}
+
+	/**
+	 * Compares {@link BufferedImage#TYPE_INT_ARGB} image with mode's baseline
+	 */
+	public DiffResult compare(@NonNull Mode mode, @NonNull BufferedImage image) {
+		File baselineFile = getBaselineFile(mode);
+		if (!baselineFile.exists()) {
+			return notify(DiffResult.of(mode, DiffResult.Status.BASELINE_MISSING, baselineFile));
+		}
+		BufferedImage baseline;
+		try (InputStream inputStream = new FileInputStream(baselineFile)) {
+			baseline = baselineFormat_.decode(inputStream);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return notify(DiffResult.of(mode, DiffResult.Status.FAILED, baselineFile));
+		}
+		if (image.getWidth() != baseline.getWidth() || image.getHeight() != baseline.getHeight()) {
+			return notify(DiffResult.of(mode, DiffResult.Status.SIZE_MISMATCHED, baselineFile));
+		}
+
+		File diffImagesDir = diffImagesDir_;
+		DiffMask mask = modeMasks_.get(mode);
+		if (mask == null) {
+			mask = defaultMask_;
+		}
+		// Threshold is a share of compared pixels, masked ones are not compared
+		long unmaskedPixels = (long) image.getWidth() * image.getHeight()
+				- (mask != null ? mask.getMaskedPixelsCount(image.getWidth(), image.getHeight()) : 0);
+		Comparison comparison = new Comparison(getPixels(image), getPixels(baseline), image.getWidth(), image.getHeight(),
+				tileSize_, colorTolerance_, mask, (long) (mismatchThreshold_ * unmaskedPixels), diffImagesDir != null);
+		pool_.invoke(new TilesTask(comparison, 0, comparison.tilesCount_));
+
+		long differentPixels = comparison.differentPixels_.get();
+		boolean isMatched = differentPixels <= comparison.maxDifferentPixels_;
+		File diffImage = null;
+		if (!isMatched && diffImagesDir != null) {
+			diffImage = writeDiffImage(comparison, new File(diffImagesDir,
+					DIFF_IMAGE_PREFIX + mode.getResolution() + "_" + mode.getDensity() + "." + PngFormat.EXTENSION));
+		}
+		List<Rectangle> differentTiles = new ArrayList<>(comparison.differentTiles_);
+		return notify(new DiffResult(mode, isMatched ? DiffResult.Status.MATCHED : DiffResult.Status.MISMATCHED, baselineFile,
+				differentPixels, comparison.comparedPixels_.get(), comparison.isStopped(), differentTiles, diffImage));
+	}
+
+	private DiffResult notify(DiffResult result) {
+		DiffListener diffListener = diffListener_;
+		if (diffListener != null) {
+			diffListener.onModeCompared(result);
+		}
+		return result;
+	}
+
+	private static int[] getPixels(BufferedImage image) {
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+			return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		}
+		int width = image.getWidth();
+		return image.getRGB(0, 0, width, image.getHeight(), null, 0, width);
+	}
+
+	/**
+	 * Writes diff image to file. Returns null if it could not be written
+	 */
+	private static File writeDiffImage(Comparison comparison, File output) {
+		File dir = output.getAbsoluteFile().getParentFile();
+		if (!dir.exists() && !dir.mkdirs()) {
+			System.out.println("Cannot create diff images dir: " + dir);
+			return null;
+		}
+		BufferedImage image = new BufferedImage(comparison.width_, comparison.height_, BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		System.arraycopy(comparison.diffPixels_, 0, pixels, 0, pixels.length);
+		try (OutputStream outputStream = new FileOutputStream(output)) {
+			new PngFormat().encode(image, outputStream);
+			return output;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public interface DiffListener {
+		void onModeCompared(DiffResult result);
+	}
+
+	/**
+	 * State of a single comparison shared by its tiles. Tiles write different parts of diff pixels
+	 */
+	private static class Comparison {
+		private final int[] pixels_;
+		private final int[] baselinePixels_;
+		private final int width_;
+		private final int height_;
+		private final int tileSize_;
+		private final int tilesInRow_;
+		private final int tilesCount_;
+		private final int colorTolerance_;
+		private final DiffMask mask_;
+		private final long maxDifferentPixels_;
+		// Null if diff image is not needed. Comparison is not stopped early then
+		private final int[] diffPixels_;
+		private final AtomicLong differentPixels_ = new AtomicLong();
+		private final AtomicLong comparedPixels_ = new AtomicLong();
+		private final Queue<Rectangle> differentTiles_ = new ConcurrentLinkedQueue<>();
+
+		private Comparison(int[] pixels, int[] baselinePixels, int width, int height, int tileSize, int colorTolerance,
+						   DiffMask mask, long maxDifferentPixels, boolean isDiffImageNeeded) {
+			pixels_ = pixels;
+			baselinePixels_ = baselinePixels;
+			width_ = width;
+			height_ = height;
+			tileSize_ = tileSize;
+			tilesInRow_ = (width + tileSize - 1) / tileSize;
+			tilesCount_ = tilesInRow_ * ((height + tileSize - 1) / tileSize);
+			colorTolerance_ = colorTolerance;
+			mask_ = mask != null && !mask.isEmpty() ? mask : null;
+			maxDifferentPixels_ = maxDifferentPixels;
+			diffPixels_ = isDiffImageNeeded ? new int[width * height] : null;
+		}
+
+		private boolean isStopped() {
+			return diffPixels_ == null && differentPixels_.get() > maxDifferentPixels_;
+		}
+
+		private void compareTile(int tile) {
+			int left = (tile % tilesInRow_) * tileSize_;
+			int top = (tile / tilesInRow_) * tileSize_;
+			Rectangle bounds = new Rectangle(left, top, Math.min(tileSize_, width_ - left), Math.min(tileSize_, height_ - top));
+			List<Rectangle> maskRegions = mask_ != null ? mask_.getRegionsIn(bounds) : null;
+			if (maskRegions != null && maskRegions.isEmpty()) {
+				maskRegions = null;
+			}
+			long tileDifferentPixels = 0;
+			long tileComparedPixels = 0;
+			for (int y = top; y < top + bounds.height; y++) {
+				if (isStopped()) {
+					break;
+				}
+				long rowDifferentPixels = 0;
+				int offset = y * width_;
+				for (int x = left; x < left + bounds.width; x++) {
+					int index = offset + x;
+					int pixel = pixels_[index];
+					if (maskRegions != null && isMasked(maskRegions, x, y)) {
+						if (diffPixels_ != null) {
+							diffPixels_[index] = MASK_COLOR;
+						}
+						continue;
+					}
+					tileComparedPixels++;
+					boolean isDifferent = isDifferent(pixel, baselinePixels_[index]);
+					if (isDifferent) {
+						rowDifferentPixels++;
+					}
+					if (diffPixels_ != null) {
+						diffPixels_[index] = isDifferent ? DIFF_COLOR : fade(pixel);
+					}
+				}
+				if (rowDifferentPixels > 0) {
+					tileDifferentPixels += rowDifferentPixels;
+					differentPixels_.addAndGet(rowDifferentPixels);
+				}
+			}
+			comparedPixels_.addAndGet(tileComparedPixels);
+			if (tileDifferentPixels > 0) {
+				differentTiles_.add(bounds);
+			}
+		}
+
+		private boolean isDifferent(int pixel, int baselinePixel) {
+			if (pixel == baselinePixel) {
+				return false;
+			}
+			for (int shift = 0; shift < 32; shift += 8) {
+				int delta = ((pixel >>> shift) & 0xFF) - ((baselinePixel >>> shift) & 0xFF);
+				if (delta > colorTolerance_ || delta < -colorTolerance_) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static boolean isMasked(List<Rectangle> regions, int x, int y) {
+			for (Rectangle region : regions) {
+				if (region.contains(x, y)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Returns pixel blended with white, so differences stand out in diff image
+		 */
+		private static int fade(int pixel) {
+			int red = (((pixel >> 16) & 0xFF) + 3 * 0xFF) / 4;
+			int green = (((pixel >> 8) & 0xFF) + 3 * 0xFF) / 4;
+			int blue = ((pixel & 0xFF) + 3 * 0xFF) / 4;
+			return 0xFF000000 | (red << 16) | (green << 8) | blue;
+		}
+	}
+
+	/**
+	 * Compares range of tiles, splitting it in halves until a single tile is left
+	 */
+	private static class TilesTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Comparison comparison_;
+		private final int fromTile_;
+		private final int toTile_;
+
+		private TilesTask(Comparison comparison, int fromTile, int toTile) {
+			comparison_ = comparison;
+			fromTile_ = fromTile;
+			toTile_ = toTile;
+		}
+
+		@Override
+		protected void compute() {
+			if (comparison_.isStopped()) {
+				return;
+			}
+			if (toTile_ - fromTile_ <= 1) {
+				if (toTile_ > fromTile_) {
+					comparison_.compareTile(fromTile_);
+				}
+				return;
+			}
+			int middle = (fromTile_ + toTile_) >>> 1;
+			invokeAll(new TilesTask(comparison_, fromTile_, middle), new TilesTask(comparison_, middle, toTile_));
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * SHA-256 digest of converted frame pixels used to find identical screenshots. Frames with equal hashes are stored
+ * as duplicates without comparing pixels, so a cryptographic digest is used instead of a fast non cryptographic hash.
+ */
+public final class FrameHash {
+	private static final String ALGORITHM = "SHA-256";
+	private static final int CHUNK_PIXELS = 16 * 1024;
+
+	private final int width_;
+	private final int height_;
+	private final byte[] digest_;
+
+	private FrameHash(int width, int height, byte[] digest) {
+		width_ = width;
+		height_ = height;
+		digest_ = digest;
+	}
+
+	/**
+	 * Hashes first width * height ARGB pixels
+	 */
+	public static FrameHash of(@NonNull int[] pixels, int width, int height) {
+		int count = width * height;
+		if (pixels.length < count) {
+			throw new IllegalArgumentException("Pixels array is too small");
+		}
+		MessageDigest digest = newDigest();
+		// Pixels are passed to digest as big endian bytes in chunks, so the frame is not copied as a whole
+		ByteBuffer chunk = ByteBuffer.allocate(Math.min(count, CHUNK_PIXELS) * 4);
+		IntBuffer chunkPixels = chunk.asIntBuffer();
+		for (int offset = 0; offset < count; offset += CHUNK_PIXELS) {
+			int length = Math.min(CHUNK_PIXELS, count - offset);
+			chunkPixels.clear();
+			chunkPixels.put(pixels, offset, length);
+			digest.update(chunk.array(), 0, length * 4);
+		}
+		return new FrameHash(width, height, digest.digest());
+	}
+
+	/**
+	 * Hashes the first length bytes of encoded image. Equals only to hash of the same bytes, never to hash of pixels
+	 */
+	public static FrameHash of(@NonNull byte[] data, int length) {
+		if (data.length < length) {
+			throw new IllegalArgumentException("Data array is too small");
+		}
+		MessageDigest digest = newDigest();
+		digest.update(data, 0, length);
+		// Zero height never occurs for pixels
+		return new FrameHash(length, 0, digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof FrameHash)) {
+			return false;
+		}
+		FrameHash other = (FrameHash) obj;
+		return width_ == other.width_ && height_ == other.height_ && Arrays.equals(digest_, other.digest_);
+	}
+
+	@Override
+	public int hashCode() {
+		// Digest bytes are uniformly distributed, the first four are enough
+		return ((digest_[0] & 0xFF) << 24) | ((digest_[1] & 0xFF) << 16) | ((digest_[2] & 0xFF) << 8) | (digest_[3] & 0xFF);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder().append(width_).append('x').append(height_).append(':');
+		for (byte value : digest_) {
+			builder.append(String.format("%02x", value));
+		}
+		return builder.toString();
+	}
+}
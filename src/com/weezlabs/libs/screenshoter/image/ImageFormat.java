@@ -0,0 +1,23 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * File format screenshots are written in. Images passed to encode are {@link BufferedImage#TYPE_INT_ARGB},
+ * decoded images have the same type.
+ */
+public interface ImageFormat {
+	/**
+	 * Returns file extension without dot
+	 */
+	String getFileExtension();
+
+	void encode(@NonNull BufferedImage image, @NonNull OutputStream output) throws IOException;
+
+	BufferedImage decode(@NonNull InputStream input) throws IOException;
+}
@@ -0,0 +1,120 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Converts screenshots written in intermediate formats like {@link QoiFormat} or {@link RawDumpFormat} to another
+ * format, PNG by default. Format of source file is chosen by its extension.
+ * <p/>
+ * Can be run from command line: <code>ImageFormatConverter &lt;directory or file&gt;...</code>
+ */
+public class ImageFormatConverter {
+	private final List<ImageFormat> sourceFormats_;
+	private final ImageFormat targetFormat_;
+
+	public ImageFormatConverter() {
+		this(new PngFormat());
+	}
+
+	public ImageFormatConverter(@NonNull ImageFormat targetFormat) {
+		sourceFormats_ = Arrays.asList(new QoiFormat(), new RawDumpFormat(), new PngFormat());
+		targetFormat_ = targetFormat;
+	}
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: ImageFormatConverter <directory or file>...");
+			return;
+		}
+		ImageFormatConverter converter = new ImageFormatConverter();
+		int convertedCount = 0;
+		for (String path : args) {
+			File file = new File(path);
+			try {
+				convertedCount += file.isDirectory() ? converter.convertDirectory(file, false) : converter.convert(file, false) != null ? 1 : 0;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		System.out.println("Converted: " + convertedCount);
+	}
+
+	/**
+	 * Returns format of the file based on its extension or null if format is unknown
+	 */
+	public ImageFormat getSourceFormat(@NonNull File file) {
+		String name = file.getName();
+		int dotIndex = name.lastIndexOf('.');
+		if (dotIndex < 0) {
+			return null;
+		}
+		String extension = name.substring(dotIndex + 1);
+		for (ImageFormat format : sourceFormats_) {
+			if (format.getFileExtension().equalsIgnoreCase(extension)) {
+				return format;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Converts file and writes result next to it with target format's extension
+	 *
+	 * @param isSourceDeleted Whether to delete source file after successful conversion
+	 * @return Converted file or null if file is not in a known format or is already in target format
+	 */
+	public File convert(@NonNull File source, boolean isSourceDeleted) throws IOException {
+		ImageFormat sourceFormat = getSourceFormat(source);
+		if (sourceFormat == null || sourceFormat.getFileExtension().equalsIgnoreCase(targetFormat_.getFileExtension())) {
+			return null;
+		}
+		String name = source.getName();
+		File target = new File(source.getAbsoluteFile().getParentFile(),
+				name.substring(0, name.lastIndexOf('.') + 1) + targetFormat_.getFileExtension());
+		BufferedImage image;
+		try (InputStream inputStream = new BufferedInputStream(new FileInputStream(source))) {
+			image = sourceFormat.decode(inputStream);
+		}
+		// Target may be a hard link to another screenshot
+		Files.deleteIfExists(target.toPath());
+		try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(target))) {
+			targetFormat_.encode(image, outputStream);
+		}
+		if (isSourceDeleted) {
+			Files.delete(source.toPath());
+		}
+		return target;
+	}
+
+	/**
+	 * Converts all files in known formats in the directory. Not recursive
+	 *
+	 * @return Number of converted files
+	 */
+	public int convertDirectory(@NonNull File directory, boolean isSourceDeleted) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list " + directory);
+		}
+		int convertedCount = 0;
+		for (File file : files) {
+			if (file.isFile() && convert(file, isSourceDeleted) != null) {
+				convertedCount++;
+			}
+		}
+		return convertedCount;
+	}
+}
@@ -0,0 +1,73 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Downscales images by averaging boxes of source pixels. Every source pixel contributes to exactly one target pixel,
+ * so text and thin lines do not alias like with nearest neighbour or single pass bilinear scaling, and cost is one pass
+ * over source pixels.
+ */
+public final class ImageScaler {
+	private ImageScaler() {
+	}
+
+	/**
+	 * Returns {@link BufferedImage#TYPE_INT_ARGB} image scaled down to the given size. Target size must not exceed
+	 * source size
+	 */
+	public static BufferedImage downscale(@NonNull BufferedImage image, int width, int height) {
+		int sourceWidth = image.getWidth();
+		int sourceHeight = image.getHeight();
+		if (width < 1 || height < 1 || width > sourceWidth || height > sourceHeight) {
+			throw new IllegalArgumentException("Cannot downscale " + sourceWidth + "x" + sourceHeight + " to " + width + "x" + height);
+		}
+		int[] source = image.getType() == BufferedImage.TYPE_INT_ARGB
+				? ((DataBufferInt) image.getRaster().getDataBuffer()).getData()
+				: image.getRGB(0, 0, sourceWidth, sourceHeight, null, 0, sourceWidth);
+		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] target = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+
+		// Target column of every source column
+		int[] columns = new int[sourceWidth];
+		int[] columnCounts = new int[width];
+		for (int x = 0; x < sourceWidth; x++) {
+			columns[x] = (int) ((long) x * width / sourceWidth);
+			columnCounts[columns[x]]++;
+		}
+		long[] sums = new long[width * 4];
+		int sourceY = 0;
+		for (int y = 0; y < height; y++) {
+			int endY = (int) ((long) (y + 1) * sourceHeight / height);
+			int rows = endY - sourceY;
+			for (; sourceY < endY; sourceY++) {
+				int offset = sourceY * sourceWidth;
+				for (int x = 0; x < sourceWidth; x++) {
+					int pixel = source[offset + x];
+					int sum = columns[x] << 2;
+					sums[sum] += pixel >>> 24;
+					sums[sum + 1] += (pixel >> 16) & 0xFF;
+					sums[sum + 2] += (pixel >> 8) & 0xFF;
+					sums[sum + 3] += pixel & 0xFF;
+				}
+			}
+			int offset = y * width;
+			for (int x = 0; x < width; x++) {
+				long count = (long) columnCounts[x] * rows;
+				int sum = x << 2;
+				// Rounded to the nearest value
+				target[offset + x] = (int) ((sums[sum] + count / 2) / count) << 24
+						| (int) ((sums[sum + 1] + count / 2) / count) << 16
+						| (int) ((sums[sum + 2] + count / 2) / count) << 8
+						| (int) ((sums[sum + 3] + count / 2) / count);
+				sums[sum] = 0;
+				sums[sum + 1] = 0;
+				sums[sum + 2] = 0;
+				sums[sum + 3] = 0;
+			}
+		}
+		return result;
+	}
+}
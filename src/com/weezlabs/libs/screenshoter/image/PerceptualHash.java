@@ -0,0 +1,67 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+/**
+ * 64 bit difference hash (dHash) of frame pixels. Image is reduced to 9x8 cells of average luminance and every bit
+ * tells whether a cell is brighter than its right neighbour. Similar looking screenshots have hashes differing in
+ * few bits, so similarity is measured by {@link PerceptualHash#distance(long, long)}. Unlike {@link FrameHash} it does
+ * not depend on resolution and survives small changes like clock or compression noise.
+ */
+public final class PerceptualHash {
+	private static final int COLUMNS = 9;
+	private static final int ROWS = 8;
+
+	private PerceptualHash() {
+	}
+
+	/**
+	 * Hashes first width * height ARGB pixels. Every pixel is used, so small details still affect cells' averages
+	 */
+	public static long of(@NonNull int[] pixels, int width, int height) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Image must not be empty");
+		}
+		if (pixels.length < width * height) {
+			throw new IllegalArgumentException("Pixels array is too small");
+		}
+		int[] cellColumns = new int[width];
+		for (int x = 0; x < width; x++) {
+			cellColumns[x] = (int) ((long) x * COLUMNS / width);
+		}
+		long[] sums = new long[COLUMNS * ROWS];
+		long[] counts = new long[COLUMNS * ROWS];
+		for (int y = 0; y < height; y++) {
+			int cellRow = (int) ((long) y * ROWS / height) * COLUMNS;
+			int offset = y * width;
+			for (int x = 0; x < width; x++) {
+				int pixel = pixels[offset + x];
+				// Integer approximation of Rec. 601 luma
+				int luminance = (((pixel >> 16) & 0xFF) * 77 + ((pixel >> 8) & 0xFF) * 150 + (pixel & 0xFF) * 29) >> 8;
+				int cell = cellRow + cellColumns[x];
+				sums[cell] += luminance;
+				counts[cell]++;
+			}
+		}
+		long hash = 0;
+		for (int row = 0; row < ROWS; row++) {
+			for (int column = 0; column < COLUMNS - 1; column++) {
+				int left = row * COLUMNS + column;
+				int right = left + 1;
+				hash <<= 1;
+				// Cells of narrow images may be empty. Averages are compared without division
+				if (counts[left] > 0 && counts[right] > 0 && sums[left] * counts[right] > sums[right] * counts[left]) {
+					hash |= 1;
+				}
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns number of different bits, 0 for identical looking images and up to 64
+	 */
+	public static int distance(long hash1, long hash2) {
+		return Long.bitCount(hash1 ^ hash2);
+	}
+}
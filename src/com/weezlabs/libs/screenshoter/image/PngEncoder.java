@@ -0,0 +1,430 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder for ARGB pixels produced by {@link RawImageConverter}. Compression level and row filter are configurable.
+ * <p/>
+ * Large images are split into bands of rows which are filtered and deflated in parallel, like pigz does. Every band
+ * is compressed with the last 32K of the previous band as a dictionary and ends with a sync flush, so compressed bands
+ * simply follow each other in one zlib stream. Adler-32 checksums of bands are combined into the stream checksum.
+ * <p/>
+ * Opaque images are written as RGB, images with transparent pixels as RGBA. Encoder is immutable and thread safe.
+ */
+public class PngEncoder {
+	public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+	/**
+	 * Images with fewer filtered bytes are encoded by the calling thread only
+	 */
+	public static final int MIN_BAND_BYTES = 256 * 1024;
+	private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final int ADLER_BASE = 65521;
+	private static final int COLOR_TYPE_RGB = 2;
+	private static final int COLOR_TYPE_RGBA = 6;
+	private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	private final int compressionLevel_;
+	private final FilterStrategy filterStrategy_;
+
+	public PngEncoder() {
+		this(DEFAULT_COMPRESSION_LEVEL, FilterStrategy.ADAPTIVE);
+	}
+
+	/**
+	 * @param compressionLevel Deflate level from {@link Deflater#NO_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}
+	 * @param filterStrategy   Row filter
+	 */
+	public PngEncoder(int compressionLevel, @NonNull FilterStrategy filterStrategy) {
+		if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Compression level must be in range 0..9");
+		}
+		compressionLevel_ = compressionLevel;
+		filterStrategy_ = filterStrategy;
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel_;
+	}
+
+	public FilterStrategy getFilterStrategy() {
+		return filterStrategy_;
+	}
+
+	/**
+	 * Encodes image. {@link BufferedImage#TYPE_INT_ARGB} images are read directly, other types are converted first
+	 */
+	public void encode(@NonNull BufferedImage image, @NonNull OutputStream output) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] pixels;
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+			pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		} else {
+			pixels = image.getRGB(0, 0, width, height, null, 0, width);
+		}
+		encode(pixels, width, height, output);
+	}
+
+	/**
+	 * Encodes width * height ARGB pixels
+	 */
+	public void encode(@NonNull int[] pixels, int width, int height, @NonNull OutputStream output) throws IOException {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Image size must be positive");
+		}
+		if (pixels.length < width * height) {
+			throw new IllegalArgumentException("Pixels array is too small");
+		}
+		int bytesPerPixel = isOpaque(pixels, width * height) ? 3 : 4;
+		int rowLength = width * bytesPerPixel + 1;
+		byte[] filtered = new byte[rowLength * height];
+
+		int parallelism = POOL.getParallelism();
+		int rowsPerBand = Math.max((MIN_BAND_BYTES + rowLength - 1) / rowLength, (height + parallelism - 1) / parallelism);
+		int bandsCount = (height + rowsPerBand - 1) / rowsPerBand;
+		Band[] bands = new Band[bandsCount];
+		for (int i = 0; i < bandsCount; i++) {
+			bands[i] = new Band(pixels, width, bytesPerPixel, filtered, i * rowsPerBand, Math.min(height, (i + 1) * rowsPerBand), i == bandsCount - 1);
+		}
+		if (bandsCount == 1) {
+			bands[0].filter();
+			bands[0].deflate();
+		} else {
+			// Dictionary of every band is the tail of the previous one, so all bands are filtered first
+			runAll(bands, true);
+			runAll(bands, false);
+		}
+
+		DataOutputStream dataOutput = new DataOutputStream(output);
+		dataOutput.write(SIGNATURE);
+		ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+		DataOutputStream headerOutput = new DataOutputStream(header);
+		headerOutput.writeInt(width);
+		headerOutput.writeInt(height);
+		headerOutput.writeByte(8);
+		headerOutput.writeByte(bytesPerPixel == 3 ? COLOR_TYPE_RGB : COLOR_TYPE_RGBA);
+		headerOutput.writeByte(0);
+		headerOutput.writeByte(0);
+		headerOutput.writeByte(0);
+		writeChunk(dataOutput, "IHDR", header.toByteArray(), 0, header.size());
+
+		writeChunk(dataOutput, "IDAT", getZlibHeader(), 0, 2);
+		long adler = 1;
+		for (Band band : bands) {
+			writeChunk(dataOutput, "IDAT", band.compressed_, 0, band.compressedLength_);
+			adler = combineAdler32(adler, band.adler_, band.getLength());
+		}
+		byte[] trailer = {(byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler};
+		writeChunk(dataOutput, "IDAT", trailer, 0, trailer.length);
+		writeChunk(dataOutput, "IEND", new byte[0], 0, 0);
+		dataOutput.flush();
+	}
+
+	private static void runAll(Band[] bands, final boolean isFilterStep) throws IOException {
+		List<Callable<Void>> tasks = new ArrayList<>(bands.length);
+		for (final Band band : bands) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					if (isFilterStep) {
+						band.filter();
+					} else {
+						band.deflate();
+					}
+					return null;
+				}
+			});
+		}
+		for (Future<Void> future : POOL.invokeAll(tasks)) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Encoding interrupted", e);
+			} catch (ExecutionException e) {
+				throw new IOException("Encoding failed", e.getCause());
+			}
+		}
+	}
+
+	private static boolean isOpaque(int[] pixels, int count) {
+		for (int i = 0; i < count; i++) {
+			if (pixels[i] >>> 24 != 0xFF) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private byte[] getZlibHeader() {
+		// Deflate with 32K window. FLG holds level hint and makes header a multiple of 31
+		int levelHint = compressionLevel_ < 2 ? 0 : compressionLevel_ < 6 ? 1 : compressionLevel_ == 6 ? 2 : 3;
+		int cmf = 0x78;
+		int flg = levelHint << 6;
+		flg += 31 - (cmf * 256 + flg) % 31;
+		return new byte[]{(byte) cmf, (byte) flg};
+	}
+
+	private static void writeChunk(DataOutputStream output, String type, byte[] data, int offset, int length) throws IOException {
+		byte[] typeBytes = type.getBytes("US-ASCII");
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, offset, length);
+		output.writeInt(length);
+		output.write(typeBytes);
+		output.write(data, offset, length);
+		output.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Returns Adler-32 of two concatenated sequences, same as zlib's adler32_combine
+	 */
+	static long combineAdler32(long adler1, long adler2, long length2) {
+		long remainder = length2 % ADLER_BASE;
+		long sum1 = adler1 & 0xFFFF;
+		long sum2 = (remainder * sum1) % ADLER_BASE;
+		sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+		sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - remainder;
+		if (sum1 >= ADLER_BASE) {
+			sum1 -= ADLER_BASE;
+		}
+		if (sum1 >= ADLER_BASE) {
+			sum1 -= ADLER_BASE;
+		}
+		if (sum2 >= (ADLER_BASE << 1)) {
+			sum2 -= (ADLER_BASE << 1);
+		}
+		if (sum2 >= ADLER_BASE) {
+			sum2 -= ADLER_BASE;
+		}
+		return sum1 | (sum2 << 16);
+	}
+
+	private static int paeth(int left, int up, int upLeft) {
+		int estimate = left + up - upLeft;
+		int distanceLeft = Math.abs(estimate - left);
+		int distanceUp = Math.abs(estimate - up);
+		int distanceUpLeft = Math.abs(estimate - upLeft);
+		if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+			return left;
+		}
+		return distanceUp <= distanceUpLeft ? up : upLeft;
+	}
+
+	/**
+	 * Row filters from PNG specification. {@link FilterStrategy#ADAPTIVE} tries all of them for every row and picks
+	 * the one with the smallest sum of absolute values, like libpng does
+	 */
+	public enum FilterStrategy {
+		NONE(0),
+		SUB(1),
+		UP(2),
+		AVERAGE(3),
+		PAETH(4),
+		ADAPTIVE(-1);
+
+		private final int type_;
+
+		FilterStrategy(int type) {
+			type_ = type;
+		}
+	}
+
+	/**
+	 * Rows encoded by one task
+	 */
+	private class Band {
+		private final int[] pixels_;
+		private final int width_;
+		private final int bytesPerPixel_;
+		private final byte[] filtered_;
+		private final int startRow_;
+		private final int endRow_;
+		private final boolean isLast_;
+		private byte[] compressed_;
+		private int compressedLength_;
+		private long adler_;
+
+		private Band(int[] pixels, int width, int bytesPerPixel, byte[] filtered, int startRow, int endRow, boolean isLast) {
+			pixels_ = pixels;
+			width_ = width;
+			bytesPerPixel_ = bytesPerPixel;
+			filtered_ = filtered;
+			startRow_ = startRow;
+			endRow_ = endRow;
+			isLast_ = isLast;
+		}
+
+		private int getRowLength() {
+			return width_ * bytesPerPixel_ + 1;
+		}
+
+		private int getOffset() {
+			return startRow_ * getRowLength();
+		}
+
+		private int getLength() {
+			return (endRow_ - startRow_) * getRowLength();
+		}
+
+		private void filter() {
+			int rawLength = width_ * bytesPerPixel_;
+			byte[] previous = new byte[rawLength];
+			byte[] current = new byte[rawLength];
+			byte[][] candidates = filterStrategy_ == FilterStrategy.ADAPTIVE ? new byte[5][rawLength] : null;
+			if (startRow_ > 0) {
+				readRow(startRow_ - 1, previous);
+			}
+			for (int row = startRow_; row < endRow_; row++) {
+				readRow(row, current);
+				int offset = row * getRowLength();
+				if (candidates == null) {
+					filtered_[offset] = (byte) filterStrategy_.type_;
+					filterRow(filterStrategy_.type_, current, previous, filtered_, offset + 1);
+				} else {
+					int bestType = 0;
+					long bestSum = Long.MAX_VALUE;
+					for (int type = 0; type < candidates.length; type++) {
+						filterRow(type, current, previous, candidates[type], 0);
+						long sum = getAbsoluteSum(candidates[type], bestSum);
+						if (sum < bestSum) {
+							bestSum = sum;
+							bestType = type;
+						}
+					}
+					filtered_[offset] = (byte) bestType;
+					System.arraycopy(candidates[bestType], 0, filtered_, offset + 1, rawLength);
+				}
+				byte[] swap = previous;
+				previous = current;
+				current = swap;
+			}
+		}
+
+		private void readRow(int row, byte[] output) {
+			int index = row * width_;
+			int end = index + width_;
+			int position = 0;
+			if (bytesPerPixel_ == 3) {
+				for (; index < end; index++) {
+					int pixel = pixels_[index];
+					output[position++] = (byte) (pixel >>> 16);
+					output[position++] = (byte) (pixel >>> 8);
+					output[position++] = (byte) pixel;
+				}
+			} else {
+				for (; index < end; index++) {
+					int pixel = pixels_[index];
+					output[position++] = (byte) (pixel >>> 16);
+					output[position++] = (byte) (pixel >>> 8);
+					output[position++] = (byte) pixel;
+					output[position++] = (byte) (pixel >>> 24);
+				}
+			}
+		}
+
+		private void filterRow(int type, byte[] current, byte[] previous, byte[] output, int offset) {
+			int length = current.length;
+			int bpp = bytesPerPixel_;
+			switch (type) {
+				case 0:
+					System.arraycopy(current, 0, output, offset, length);
+					break;
+				case 1:
+					for (int i = 0; i < length; i++) {
+						int left = i >= bpp ? current[i - bpp] : 0;
+						output[offset + i] = (byte) (current[i] - left);
+					}
+					break;
+				case 2:
+					for (int i = 0; i < length; i++) {
+						output[offset + i] = (byte) (current[i] - previous[i]);
+					}
+					break;
+				case 3:
+					for (int i = 0; i < length; i++) {
+						int left = i >= bpp ? current[i - bpp] & 0xFF : 0;
+						output[offset + i] = (byte) (current[i] - ((left + (previous[i] & 0xFF)) >>> 1));
+					}
+					break;
+				default:
+					for (int i = 0; i < length; i++) {
+						int left = i >= bpp ? current[i - bpp] & 0xFF : 0;
+						int upLeft = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+						output[offset + i] = (byte) (current[i] - paeth(left, previous[i] & 0xFF, upLeft));
+					}
+					break;
+			}
+		}
+
+		/**
+		 * Sums filtered bytes as signed values. Stops early when sum exceeds limit
+		 */
+		private long getAbsoluteSum(byte[] row, long limit) {
+			long sum = 0;
+			for (byte value : row) {
+				sum += Math.abs(value);
+				if (sum >= limit) {
+					break;
+				}
+			}
+			return sum;
+		}
+
+		private void deflate() {
+			int offset = getOffset();
+			int length = getLength();
+			Adler32 adler32 = new Adler32();
+			adler32.update(filtered_, offset, length);
+			adler_ = adler32.getValue();
+
+			Deflater deflater = new Deflater(compressionLevel_, true);
+			try {
+				if (offset > 0) {
+					int dictionaryLength = Math.min(DICTIONARY_SIZE, offset);
+					deflater.setDictionary(filtered_, offset - dictionaryLength, dictionaryLength);
+				}
+				deflater.setInput(filtered_, offset, length);
+				if (isLast_) {
+					deflater.finish();
+				}
+				compressed_ = new byte[Math.max(1024, length / 4)];
+				compressedLength_ = 0;
+				while (true) {
+					if (compressedLength_ == compressed_.length) {
+						byte[] grown = new byte[compressed_.length * 2];
+						System.arraycopy(compressed_, 0, grown, 0, compressedLength_);
+						compressed_ = grown;
+					}
+					int count = isLast_
+							? deflater.deflate(compressed_, compressedLength_, compressed_.length - compressedLength_)
+							: deflater.deflate(compressed_, compressedLength_, compressed_.length - compressedLength_, Deflater.SYNC_FLUSH);
+					compressedLength_ += count;
+					// Output is complete when deflater did not fill the whole buffer
+					if (isLast_ ? deflater.finished() : compressedLength_ < compressed_.length) {
+						break;
+					}
+				}
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * PNG written with {@link PngEncoder}
+ */
+public class PngFormat implements ImageFormat {
+	public static final String EXTENSION = "png";
+
+	private final PngEncoder encoder_;
+
+	public PngFormat() {
+		this(new PngEncoder());
+	}
+
+	public PngFormat(@NonNull PngEncoder encoder) {
+		encoder_ = encoder;
+	}
+
+	public PngEncoder getEncoder() {
+		return encoder_;
+	}
+
+	@Override
+	public String getFileExtension() {
+		return EXTENSION;
+	}
+
+	@Override
+	public void encode(@NonNull BufferedImage image, @NonNull OutputStream output) throws IOException {
+		encoder_.encode(image, output);
+	}
+
+	@Override
+	public BufferedImage decode(@NonNull InputStream input) throws IOException {
+		BufferedImage image = ImageIO.read(input);
+		if (image == null) {
+			throw new IOException("Not a PNG image");
+		}
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+			return image;
+		}
+		// Pixels are copied as is. Drawing would blend transparent pixels
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BufferedImage argbImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		argbImage.setRGB(0, 0, width, height, image.getRGB(0, 0, width, height, null, 0, width), 0, width);
+		return argbImage;
+	}
+}
@@ -0,0 +1,77 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Uncompressed ARGB pixels. Costs nothing to encode, meant for frames which are converted later with
+ * {@link ImageFormatConverter} or only compared by automated tools.
+ * <p/>
+ * File layout, big endian: "SRAW" magic, format version byte, width int, height int, width * height ARGB ints.
+ */
+public class RawDumpFormat implements ImageFormat {
+	public static final String EXTENSION = "sraw";
+	private static final byte[] MAGIC = {'S', 'R', 'A', 'W'};
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 13;
+	private static final int ROWS_PER_WRITE = 64;
+
+	@Override
+	public String getFileExtension() {
+		return EXTENSION;
+	}
+
+	@Override
+	public void encode(@NonNull BufferedImage image, @NonNull OutputStream output) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.put(MAGIC).put((byte) VERSION).putInt(width).putInt(height);
+		output.write(header.array());
+		// Written in bands to avoid a second full size copy of the frame
+		ByteBuffer band = ByteBuffer.allocate(width * Math.min(height, ROWS_PER_WRITE) * 4);
+		for (int row = 0; row < height; row += ROWS_PER_WRITE) {
+			int rows = Math.min(ROWS_PER_WRITE, height - row);
+			band.clear();
+			band.asIntBuffer().put(pixels, row * width, rows * width);
+			output.write(band.array(), 0, rows * width * 4);
+		}
+	}
+
+	@Override
+	public BufferedImage decode(@NonNull InputStream input) throws IOException {
+		DataInputStream dataInput = new DataInputStream(input);
+		byte[] magic = new byte[MAGIC.length];
+		dataInput.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new IOException("Not a raw dump");
+		}
+		int version = dataInput.readUnsignedByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported raw dump version " + version);
+		}
+		int width = dataInput.readInt();
+		int height = dataInput.readInt();
+		if (width <= 0 || height <= 0) {
+			throw new IOException("Wrong image size " + width + "x" + height);
+		}
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		byte[] band = new byte[width * Math.min(height, ROWS_PER_WRITE) * 4];
+		for (int row = 0; row < height; row += ROWS_PER_WRITE) {
+			int rows = Math.min(ROWS_PER_WRITE, height - row);
+			dataInput.readFully(band, 0, rows * width * 4);
+			ByteBuffer.wrap(band, 0, rows * width * 4).asIntBuffer().get(pixels, row * width, rows * width);
+		}
+		return image;
+	}
+}
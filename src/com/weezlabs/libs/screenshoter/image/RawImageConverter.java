@@ -0,0 +1,278 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.android.ddmlib.RawImage;
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts {@link RawImage} received from device's framebuffer to {@link BufferedImage}.
+ * Pixels are written straight to the image's {@link DataBufferInt}. Layouts reported by ddmlib for RGBA_8888, RGBX_8888,
+ * BGRA_8888 and RGB_565 have specialised loops, any other layout falls back to {@link RawImage#getARGB(int)}.
+ * Layouts without alpha channel are converted to opaque pixels.
+ * Large frames are converted by several threads, each one handles a band of rows.
+ * <p/>
+ * Frame may be converted with {@link RegionOfInterest}, then only pixels of the crop area outside of blanked areas
+ * are read from framebuffer.
+ */
+public class RawImageConverter {
+	/**
+	 * Frames with at least this number of pixels are converted in parallel
+	 */
+	public static final int PARALLEL_THRESHOLD_PIXELS = 1024 * 1024;
+	private static final int MIN_ROWS_PER_TASK = 64;
+	private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	private static volatile int[] rgb565Table_;
+
+	private RawImageConverter() {
+	}
+
+	/**
+	 * Converts raw framebuffer image to {@link BufferedImage#TYPE_INT_ARGB} image
+	 */
+	public static BufferedImage convert(@NonNull RawImage rawImage) {
+		BufferedImage bufferedImage = new BufferedImage(rawImage.width, rawImage.height, BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+		convert(rawImage, pixels);
+		return bufferedImage;
+	}
+
+	/**
+	 * Converts raw framebuffer image to ARGB pixels. Pixels array must fit width * height values
+	 */
+	public static void convert(@NonNull RawImage rawImage, @NonNull int[] pixels) {
+		if (pixels.length < rawImage.width * rawImage.height) {
+			throw new IllegalArgumentException("Pixels array is too small");
+		}
+		Rectangle frame = new Rectangle(0, 0, rawImage.width, rawImage.height);
+		convert(rawImage, new Target(pixels, frame, Collections.<Rectangle>emptyList()));
+	}
+
+	/**
+	 * Converts part of raw framebuffer image selected by region of interest to {@link BufferedImage#TYPE_INT_ARGB}
+	 * image of crop area's size
+	 */
+	public static BufferedImage convert(@NonNull RawImage rawImage, @NonNull RegionOfInterest regionOfInterest) {
+		Rectangle crop = regionOfInterest.getCropBounds(rawImage.width, rawImage.height);
+		if (crop.isEmpty()) {
+			throw new IllegalArgumentException("Crop area is outside of " + rawImage.width + "x" + rawImage.height + " frame");
+		}
+		BufferedImage bufferedImage = new BufferedImage(crop.width, crop.height, BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+		List<Rectangle> blanks = new ArrayList<>(regionOfInterest.getBlankBounds(rawImage.width, rawImage.height));
+		Collections.sort(blanks, new Comparator<Rectangle>() {
+			@Override
+			public int compare(Rectangle first, Rectangle second) {
+				return Integer.compare(first.x, second.x);
+			}
+		});
+		convert(rawImage, new Target(pixels, crop, blanks));
+		return bufferedImage;
+	}
+
+	private static void convert(RawImage rawImage, Target target) {
+		int bytesPerPixel = rawImage.bpp >> 3;
+		if (rawImage.data == null || rawImage.data.length < rawImage.width * rawImage.height * bytesPerPixel) {
+			throw new IllegalArgumentException("Raw image data is too short for " + rawImage.width + "x" + rawImage.height);
+		}
+		Layout layout = Layout.of(rawImage);
+		if (target.crop_.width * target.crop_.height >= PARALLEL_THRESHOLD_PIXELS && POOL.getParallelism() > 1) {
+			POOL.invoke(new ConvertRowsTask(rawImage, layout, target, 0, target.crop_.height));
+		} else {
+			convertRows(rawImage, layout, target, 0, target.crop_.height);
+		}
+	}
+
+	/**
+	 * Converts rows of target image. Rows of whole frame are converted as one span
+	 */
+	private static void convertRows(RawImage rawImage, Layout layout, Target target, int startRow, int endRow) {
+		Rectangle crop = target.crop_;
+		if (crop.width == rawImage.width && target.blanks_.isEmpty()) {
+			int start = crop.y * rawImage.width + startRow * crop.width;
+			convertSpan(rawImage, layout, target.pixels_, start, startRow * crop.width, (endRow - startRow) * crop.width);
+			return;
+		}
+		for (int y = startRow; y < endRow; y++) {
+			int source = (crop.y + y) * rawImage.width + crop.x;
+			int offset = y * crop.width;
+			// Blanks are sorted by left edge and may overlap
+			int x = 0;
+			for (Rectangle blank : target.blanks_) {
+				int blankEnd = blank.x + blank.width;
+				if (y < blank.y || y >= blank.y + blank.height || blankEnd <= x) {
+					continue;
+				}
+				int blankStart = Math.max(blank.x, x);
+				if (blankStart > x) {
+					convertSpan(rawImage, layout, target.pixels_, source + x, offset + x, blankStart - x);
+				}
+				Arrays.fill(target.pixels_, offset + blankStart, offset + blankEnd, RegionOfInterest.BLANK_COLOR);
+				x = blankEnd;
+			}
+			if (x < crop.width) {
+				convertSpan(rawImage, layout, target.pixels_, source + x, offset + x, crop.width - x);
+			}
+		}
+	}
+
+	/**
+	 * Converts count framebuffer pixels starting from the source pixel to pixels starting from the target index
+	 */
+	private static void convertSpan(RawImage rawImage, Layout layout, int[] pixels, int source, int target, int count) {
+		byte[] data = rawImage.data;
+		int start = target;
+		int end = target + count;
+		switch (layout) {
+			case RGBA_8888:
+				for (int i = start, index = source << 2; i < end; i++, index += 4) {
+					pixels[i] = (data[index + 3] & 0xFF) << 24
+							| (data[index] & 0xFF) << 16
+							| (data[index + 1] & 0xFF) << 8
+							| (data[index + 2] & 0xFF);
+				}
+				break;
+			case RGBX_8888:
+				for (int i = start, index = source << 2; i < end; i++, index += 4) {
+					pixels[i] = 0xFF000000
+							| (data[index] & 0xFF) << 16
+							| (data[index + 1] & 0xFF) << 8
+							| (data[index + 2] & 0xFF);
+				}
+				break;
+			case BGRA_8888:
+				// Little endian BGRA is exactly ARGB int
+				for (int i = start, index = source << 2; i < end; i++, index += 4) {
+					pixels[i] = (data[index + 3] & 0xFF) << 24
+							| (data[index + 2] & 0xFF) << 16
+							| (data[index + 1] & 0xFF) << 8
+							| (data[index] & 0xFF);
+				}
+				break;
+			case BGRX_8888:
+				for (int i = start, index = source << 2; i < end; i++, index += 4) {
+					pixels[i] = 0xFF000000
+							| (data[index + 2] & 0xFF) << 16
+							| (data[index + 1] & 0xFF) << 8
+							| (data[index] & 0xFF);
+				}
+				break;
+			case RGB_565:
+				int[] table = getRgb565Table();
+				for (int i = start, index = source << 1; i < end; i++, index += 2) {
+					pixels[i] = table[(data[index] & 0xFF) | (data[index + 1] & 0xFF) << 8];
+				}
+				break;
+			default:
+				int bytesPerPixel = rawImage.bpp >> 3;
+				// getARGB() returns zero alpha for layouts without alpha channel
+				int alpha = rawImage.bpp == 32 && rawImage.alpha_length == 0 ? 0xFF000000 : 0;
+				for (int i = start, index = source * bytesPerPixel; i < end; i++, index += bytesPerPixel) {
+					pixels[i] = rawImage.getARGB(index) | alpha;
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Returns lookup table from 16 bit RGB_565 value to ARGB. Uses the same rounding as {@link RawImage#getARGB(int)}
+	 */
+	private static int[] getRgb565Table() {
+		int[] table = rgb565Table_;
+		if (table == null) {
+			table = new int[1 << 16];
+			for (int value = 0; value < table.length; value++) {
+				int r = ((value >>> 11) & 0x1F) * 255 / 31;
+				int g = ((value >>> 5) & 0x3F) * 255 / 63;
+				int b = (value & 0x1F) * 255 / 31;
+				table[value] = 0xFF000000 | r << 16 | g << 8 | b;
+			}
+			rgb565Table_ = table;
+		}
+		return table;
+	}
+
+	private enum Layout {
+		RGBA_8888,
+		RGBX_8888,
+		BGRA_8888,
+		BGRX_8888,
+		RGB_565,
+		GENERIC;
+
+		static Layout of(RawImage rawImage) {
+			if (rawImage.bpp == 16) {
+				return RGB_565;
+			}
+			if (rawImage.bpp != 32
+					|| rawImage.red_length != 8 || rawImage.green_length != 8 || rawImage.blue_length != 8
+					|| rawImage.green_offset != 8
+					|| (rawImage.alpha_length != 0 && (rawImage.alpha_length != 8 || rawImage.alpha_offset != 24))) {
+				return GENERIC;
+			}
+			boolean hasAlpha = rawImage.alpha_length != 0;
+			if (rawImage.red_offset == 0 && rawImage.blue_offset == 16) {
+				return hasAlpha ? RGBA_8888 : RGBX_8888;
+			}
+			if (rawImage.red_offset == 16 && rawImage.blue_offset == 0) {
+				return hasAlpha ? BGRA_8888 : BGRX_8888;
+			}
+			return GENERIC;
+		}
+	}
+
+	private static class ConvertRowsTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final RawImage rawImage_;
+		private final Layout layout_;
+		private final Target target_;
+		private final int startRow_;
+		private final int endRow_;
+
+		private ConvertRowsTask(RawImage rawImage, Layout layout, Target target, int startRow, int endRow) {
+			rawImage_ = rawImage;
+			layout_ = layout;
+			target_ = target;
+			startRow_ = startRow;
+			endRow_ = endRow;
+		}
+
+		@Override
+		protected void compute() {
+			int rows = endRow_ - startRow_;
+			int rowsPerTask = Math.max(MIN_ROWS_PER_TASK, target_.crop_.height / (POOL.getParallelism() * 2));
+			if (rows <= rowsPerTask) {
+				convertRows(rawImage_, layout_, target_, startRow_, endRow_);
+			} else {
+				int middleRow = startRow_ + rows / 2;
+				invokeAll(new ConvertRowsTask(rawImage_, layout_, target_, startRow_, middleRow),
+						new ConvertRowsTask(rawImage_, layout_, target_, middleRow, endRow_));
+			}
+		}
+	}
+
+	/**
+	 * Pixels converted frame is written to, part of frame they hold and blanked areas in pixels' coordinates
+	 */
+	private static class Target {
+		private final int[] pixels_;
+		private final Rectangle crop_;
+		private final List<Rectangle> blanks_;
+
+		private Target(int[] pixels, Rectangle crop, List<Rectangle> blanks) {
+			pixels_ = pixels;
+			crop_ = crop;
+			blanks_ = blanks;
+		}
+	}
+}
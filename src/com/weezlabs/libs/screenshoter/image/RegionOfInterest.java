@@ -0,0 +1,140 @@
+package com.weezlabs.libs.screenshoter.image;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Part of a frame which is kept in screenshot. Frame is cropped to the crop area and blanked areas inside it are
+ * filled with {@link RegionOfInterest#BLANK_COLOR}, so changing parts like status bar clock neither break
+ * deduplication and visual diff nor cost encoding time. Areas are set in pixels or in fractions of frame size, which is
+ * mode's resolution, so one fractional region fits all modes.
+ * <p/>
+ * Regions are applied by {@link RawImageConverter#convert(com.android.ddmlib.RawImage, RegionOfInterest)} while
+ * framebuffer is converted, pixels outside of them are never read. Regions should not be changed after they are set
+ * to a session.
+ */
+public class RegionOfInterest {
+	public static final int BLANK_COLOR = 0xFF000000;
+
+	private final List<Area> blankAreas_ = new ArrayList<>();
+	private Area crop_;
+
+	/**
+	 * Sets area frame is cropped to. Whole frame is kept by default
+	 */
+	public RegionOfInterest crop(@NonNull Area area) {
+		crop_ = area;
+		return this;
+	}
+
+	/**
+	 * Adds area filled with {@link RegionOfInterest#BLANK_COLOR}. Part outside of crop area is not used
+	 */
+	public RegionOfInterest blank(@NonNull Area area) {
+		blankAreas_.add(area);
+		return this;
+	}
+
+	/**
+	 * Returns bounds of crop area in frame of the given size. Bounds are empty if crop area is outside of frame
+	 */
+	public Rectangle getCropBounds(int width, int height) {
+		Rectangle frame = new Rectangle(0, 0, width, height);
+		return crop_ != null ? crop_.resolve(width, height).intersection(frame) : frame;
+	}
+
+	/**
+	 * Returns blanked areas in coordinates of cropped image. Areas are clipped to it
+	 */
+	public List<Rectangle> getBlankBounds(int width, int height) {
+		Rectangle crop = getCropBounds(width, height);
+		if (blankAreas_.isEmpty() || crop.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Rectangle> bounds = new ArrayList<>();
+		for (Area area : blankAreas_) {
+			Rectangle blank = area.resolve(width, height).intersection(crop);
+			if (!blank.isEmpty()) {
+				blank.translate(-crop.x, -crop.y);
+				bounds.add(blank);
+			}
+		}
+		return bounds;
+	}
+
+	/**
+	 * Applies regions to decoded {@link BufferedImage#TYPE_INT_ARGB} frame, used for frames which are not converted
+	 * from framebuffer. Returns new image
+	 */
+	public BufferedImage apply(@NonNull BufferedImage image) {
+		Rectangle crop = getCropBounds(image.getWidth(), image.getHeight());
+		if (crop.isEmpty()) {
+			throw new IllegalArgumentException("Crop area is outside of " + image.getWidth() + "x" + image.getHeight() + " frame");
+		}
+		BufferedImage result = new BufferedImage(crop.width, crop.height, BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+		image.getRGB(crop.x, crop.y, crop.width, crop.height, pixels, 0, crop.width);
+		for (Rectangle blank : getBlankBounds(image.getWidth(), image.getHeight())) {
+			for (int y = blank.y; y < blank.y + blank.height; y++) {
+				int offset = y * crop.width;
+				Arrays.fill(pixels, offset + blank.x, offset + blank.x + blank.width, BLANK_COLOR);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Rectangle in pixels or in fractions of frame size
+	 */
+	public static final class Area {
+		private final double x_;
+		private final double y_;
+		private final double width_;
+		private final double height_;
+		private final boolean isFraction_;
+
+		private Area(double x, double y, double width, double height, boolean isFraction) {
+			if (width <= 0 || height <= 0) {
+				throw new IllegalArgumentException("Area size must be positive");
+			}
+			x_ = x;
+			y_ = y;
+			width_ = width;
+			height_ = height;
+			isFraction_ = isFraction;
+		}
+
+		public static Area pixels(int x, int y, int width, int height) {
+			return new Area(x, y, width, height, false);
+		}
+
+		/**
+		 * Creates area from fractions of frame's width and height, e.g. (0, 0, 1, 0.05) is the top 5% of frame.
+		 * Edges are rounded to the nearest pixel
+		 */
+		public static Area fractions(double x, double y, double width, double height) {
+			return new Area(x, y, width, height, true);
+		}
+
+		/**
+		 * Returns area's bounds in frame of the given size. Bounds may exceed frame
+		 */
+		public Rectangle resolve(int frameWidth, int frameHeight) {
+			if (!isFraction_) {
+				return new Rectangle((int) x_, (int) y_, (int) width_, (int) height_);
+			}
+			int left = (int) Math.round(x_ * frameWidth);
+			int top = (int) Math.round(y_ * frameHeight);
+			int right = (int) Math.round((x_ + width_) * frameWidth);
+			int bottom = (int) Math.round((y_ + height_) * frameHeight);
+			return new Rectangle(left, top, right - left, bottom - top);
+		}
+	}
+}
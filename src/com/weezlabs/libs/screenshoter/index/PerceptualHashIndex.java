@@ -0,0 +1,542 @@
+package com.weezlabs.libs.screenshoter.index;
+
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.image.PerceptualHash;
+import com.weezlabs.libs.screenshoter.model.Device;
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append only index of {@link PerceptualHash perceptual hashes} of screenshots keyed by device, mode and run.
+ * Answers which stored screenshots look like the given one without reading any image.
+ * <p/>
+ * Records have fixed size and refer to device, run and mode names by number, names are kept in a text file next to
+ * the index. Hashes and modes of all records are held in memory, 10 bytes per record, and lookup is a linear scan
+ * of Hamming distances, which takes milliseconds for millions of records and does not degrade with distance like
+ * tree indexes do.
+ * <p/>
+ * File layout, big endian:<br>
+ * header: "SPHI" magic, version int, 8 reserved bytes<br>
+ * records: hash long, run number int, device number short, mode number short<br>
+ * Names file: a line per name, "R", "D" or "M" and the name separated by tab, numbers are positions of names of the
+ * same kind. Mode name is resolution and density names.
+ * <p/>
+ * Index is locked with {@link FileLock} while it is open, so it can be shared by processes running one after another,
+ * e.g. CI runs, but is opened by one process at a time. Methods are thread safe.
+ */
+public class PerceptualHashIndex implements Closeable {
+	public static final String EXTENSION = "sphi";
+	public static final String NAMES_FILE_SUFFIX = ".names";
+	private static final byte[] MAGIC = {'S', 'P', 'H', 'I'};
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_SIZE = 16;
+	private static final int WRITE_BUFFER_RECORDS = 4096;
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String SEPARATOR = "\t";
+	private static final String KIND_RUN = "R";
+	private static final String KIND_DEVICE = "D";
+	private static final String KIND_MODE = "M";
+	// Mode filters which are not mode numbers
+	private static final int ANY_MODE = -1;
+	private static final int NO_RECORDS = -2;
+	// Devices and modes are stored as unsigned shorts
+	private static final int MAX_SHORT_NUMBER = 0xFFFF;
+
+	private final File file_;
+	private final File namesFile_;
+	private final RandomAccessFile randomAccessFile_;
+	private final FileChannel channel_;
+	private final FileLock fileLock_;
+	private final ReentrantLock lock_ = new ReentrantLock();
+	private final ByteBuffer writeBuffer_ = ByteBuffer.allocate(WRITE_BUFFER_RECORDS * RECORD_SIZE);
+	private final Names runs_ = new Names();
+	private final Names devices_ = new Names();
+	private final List<Mode> modes_ = new ArrayList<>();
+	private final Map<Mode, Integer> modeNumbers_ = new HashMap<>();
+	private OutputStream namesOutput_;
+	private long[] hashes_ = new long[INITIAL_CAPACITY];
+	private short[] recordModes_ = new short[INITIAL_CAPACITY];
+	private int size_;
+	private int flushedSize_;
+	private boolean isClosed_;
+
+	/**
+	 * Opens index or creates it if file does not exist. Record torn by killed process is dropped
+	 */
+	public PerceptualHashIndex(@NonNull File file) throws IOException {
+		file_ = file;
+		namesFile_ = new File(file.getPath() + NAMES_FILE_SUFFIX);
+		randomAccessFile_ = new RandomAccessFile(file, "rw");
+		channel_ = randomAccessFile_.getChannel();
+		try {
+			// Records and names are numbered from this process' view of the files, another writer would break numbering
+			fileLock_ = tryLock();
+			readNames();
+			readRecords();
+		} catch (IOException | RuntimeException e) {
+			randomAccessFile_.close();
+			throw e;
+		}
+	}
+
+	public File getFile() {
+		return file_;
+	}
+
+	public int size() {
+		lock_.lock();
+		try {
+			return size_;
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Adds record. Records are buffered, call {@link PerceptualHashIndex#flush()} to make them visible to other processes
+	 */
+	public void add(@NonNull String device, @NonNull String run, @NonNull Mode mode, long hash) throws IOException {
+		lock_.lock();
+		try {
+			checkIsOpen();
+			// Names are written before records, so a stored record never refers to unknown name
+			int runNumber = getNumber(runs_, KIND_RUN, run, Integer.MAX_VALUE);
+			int deviceNumber = getNumber(devices_, KIND_DEVICE, device, MAX_SHORT_NUMBER);
+			int modeNumber = getModeNumber(mode);
+			if (!writeBuffer_.hasRemaining()) {
+				writeRecords();
+			}
+			writeBuffer_.putLong(hash).putInt(runNumber).putShort((short) deviceNumber).putShort((short) modeNumber);
+			addToMemory(hash, (short) modeNumber);
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Returns up to maxResults records closest to the hash, closest first
+	 *
+	 * @param mode Only records of the mode are returned if not null
+	 */
+	public List<Entry> findNearest(long hash, @Nullable Mode mode, int maxResults) throws IOException {
+		if (maxResults < 1) {
+			throw new IllegalArgumentException("maxResults must be positive");
+		}
+		lock_.lock();
+		try {
+			checkIsOpen();
+			int modeNumber = getModeFilter(mode);
+			if (modeNumber == NO_RECORDS) {
+				return new ArrayList<>();
+			}
+			// Distances are 0..64, so the cutoff distance is found by counting instead of keeping a heap
+			int[] distanceCounts = new int[Long.SIZE + 1];
+			for (int i = 0; i < size_; i++) {
+				if (modeNumber == ANY_MODE || (recordModes_[i] & 0xFFFF) == modeNumber) {
+					distanceCounts[PerceptualHash.distance(hashes_[i], hash)]++;
+				}
+			}
+			int maxDistance = 0;
+			int count = distanceCounts[0];
+			while (count < maxResults && maxDistance < Long.SIZE) {
+				maxDistance++;
+				count += distanceCounts[maxDistance];
+			}
+			return collect(hash, modeNumber, maxDistance, maxResults);
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Returns all records differing from the hash in at most maxDistance bits, closest first
+	 *
+	 * @param mode Only records of the mode are returned if not null
+	 */
+	public List<Entry> findWithin(long hash, @Nullable Mode mode, int maxDistance) throws IOException {
+		lock_.lock();
+		try {
+			checkIsOpen();
+			int modeNumber = getModeFilter(mode);
+			if (modeNumber == NO_RECORDS) {
+				return new ArrayList<>();
+			}
+			return collect(hash, modeNumber, maxDistance, Integer.MAX_VALUE);
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Writes buffered records to file
+	 */
+	public void flush() throws IOException {
+		lock_.lock();
+		try {
+			checkIsOpen();
+			writeRecords();
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock_.lock();
+		try {
+			if (isClosed_) {
+				return;
+			}
+			try {
+				writeRecords();
+			} finally {
+				isClosed_ = true;
+				try {
+					if (namesOutput_ != null) {
+						namesOutput_.close();
+					}
+				} finally {
+					// Closing channel releases the lock
+					randomAccessFile_.close();
+				}
+			}
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	private int getModeFilter(Mode mode) {
+		if (mode == null) {
+			return ANY_MODE;
+		}
+		Integer number = modeNumbers_.get(mode);
+		return number != null ? number : NO_RECORDS;
+	}
+
+	/**
+	 * Returns matching records within distance sorted by distance. Records are read from file
+	 */
+	private List<Entry> collect(long hash, int modeNumber, int maxDistance, int maxResults) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		if (maxDistance < 0) {
+			return entries;
+		}
+		writeRecords();
+		// Bucketed by distance, so records are sorted without comparing them
+		List<List<Integer>> buckets = new ArrayList<>();
+		for (int i = 0; i <= Math.min(maxDistance, Long.SIZE); i++) {
+			buckets.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < size_; i++) {
+			if (modeNumber != ANY_MODE && (recordModes_[i] & 0xFFFF) != modeNumber) {
+				continue;
+			}
+			int distance = PerceptualHash.distance(hashes_[i], hash);
+			if (distance <= maxDistance) {
+				buckets.get(distance).add(i);
+			}
+		}
+		ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+		for (int distance = 0; distance < buckets.size(); distance++) {
+			for (int recordNumber : buckets.get(distance)) {
+				if (entries.size() >= maxResults) {
+					return entries;
+				}
+				record.clear();
+				long position = HEADER_SIZE + (long) recordNumber * RECORD_SIZE;
+				while (record.hasRemaining()) {
+					if (channel_.read(record, position + record.position()) < 0) {
+						throw new IOException("Index file is truncated");
+					}
+				}
+				record.flip();
+				long recordHash = record.getLong();
+				String run = runs_.get(record.getInt());
+				String device = devices_.get(record.getShort() & 0xFFFF);
+				Mode mode = modes_.get(record.getShort() & 0xFFFF);
+				entries.add(new Entry(device, run, mode, recordHash, distance));
+			}
+		}
+		return entries;
+	}
+
+	private void addToMemory(long hash, short modeNumber) {
+		if (size_ == hashes_.length) {
+			hashes_ = Arrays.copyOf(hashes_, size_ * 2);
+			recordModes_ = Arrays.copyOf(recordModes_, size_ * 2);
+		}
+		hashes_[size_] = hash;
+		recordModes_[size_] = modeNumber;
+		size_++;
+	}
+
+	private void writeRecords() throws IOException {
+		if (writeBuffer_.position() == 0) {
+			return;
+		}
+		writeBuffer_.flip();
+		long position = HEADER_SIZE + (long) flushedSize_ * RECORD_SIZE;
+		while (writeBuffer_.hasRemaining()) {
+			position += channel_.write(writeBuffer_, position);
+		}
+		writeBuffer_.clear();
+		flushedSize_ = size_;
+	}
+
+	private void readRecords() throws IOException {
+		long length = channel_.size();
+		if (length == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.put(MAGIC).putInt(VERSION);
+			header.clear();
+			while (header.hasRemaining()) {
+				channel_.write(header, header.position());
+			}
+			return;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining()) {
+			if (channel_.read(header, header.position()) < 0) {
+				throw new IOException("Not a perceptual hash index: " + file_);
+			}
+		}
+		header.flip();
+		byte[] magic = new byte[MAGIC.length];
+		header.get(magic);
+		if (!Arrays.equals(magic, MAGIC) || header.getInt() != VERSION) {
+			throw new IOException("Not a perceptual hash index: " + file_);
+		}
+		long count = (length - HEADER_SIZE) / RECORD_SIZE;
+		if (count > Integer.MAX_VALUE) {
+			throw new IOException("Index is too large: " + file_);
+		}
+		channel_.truncate(HEADER_SIZE + count * RECORD_SIZE);
+		ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_RECORDS * RECORD_SIZE);
+		buffer.flip();
+		long position = HEADER_SIZE;
+		for (int i = 0; i < count; i++) {
+			if (!buffer.hasRemaining()) {
+				buffer.clear();
+				while (buffer.hasRemaining() && position < channel_.size()) {
+					int read = channel_.read(buffer, position);
+					if (read < 0) {
+						break;
+					}
+					position += read;
+				}
+				buffer.flip();
+			}
+			long hash = buffer.getLong();
+			int runNumber = buffer.getInt();
+			int deviceNumber = buffer.getShort() & 0xFFFF;
+			int modeNumber = buffer.getShort() & 0xFFFF;
+			// Names file may be torn or replaced, records must not refer to names which were not read
+			if (runNumber < 0 || runNumber >= runs_.size()) {
+				throw new IOException("Index refers to unknown run: " + file_);
+			}
+			if (deviceNumber >= devices_.size()) {
+				throw new IOException("Index refers to unknown device: " + file_);
+			}
+			if (modeNumber >= modes_.size()) {
+				throw new IOException("Index refers to unknown mode: " + file_);
+			}
+			addToMemory(hash, (short) modeNumber);
+		}
+		flushedSize_ = size_;
+	}
+
+	private FileLock tryLock() throws IOException {
+		FileLock fileLock;
+		try {
+			fileLock = channel_.tryLock();
+		} catch (OverlappingFileLockException e) {
+			fileLock = null;
+		}
+		if (fileLock == null) {
+			throw new IOException("Index is opened by another process or instance: " + file_);
+		}
+		return fileLock;
+	}
+
+	private void readNames() throws IOException {
+		if (!namesFile_.exists()) {
+			return;
+		}
+		byte[] data = Files.readAllBytes(namesFile_.toPath());
+		int length = data.length;
+		while (length > 0 && data[length - 1] != '\n') {
+			length--;
+		}
+		if (length < data.length) {
+			// Torn last line, its record could not be written. Next name would be glued to it
+			try (RandomAccessFile namesFile = new RandomAccessFile(namesFile_, "rw")) {
+				namesFile.setLength(length);
+			}
+		}
+		for (String line : new String(data, 0, length, CHARSET).split("\n")) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			String[] parts = line.split(SEPARATOR);
+			if (KIND_RUN.equals(parts[0]) && parts.length == 2) {
+				runs_.add(parts[1]);
+			} else if (KIND_DEVICE.equals(parts[0]) && parts.length == 2) {
+				devices_.add(parts[1]);
+			} else if (KIND_MODE.equals(parts[0]) && parts.length == 3) {
+				try {
+					Mode mode = new Mode(Device.Resolution.valueOf(parts[1]), Device.Dpi.valueOf(parts[2]));
+					modeNumbers_.put(mode, modes_.size());
+					modes_.add(mode);
+				} catch (IllegalArgumentException e) {
+					// Skipping the mode would shift numbers of all modes after it
+					throw new IOException("Unknown mode in " + namesFile_ + ": " + line);
+				}
+			} else {
+				throw new IOException("Broken line in " + namesFile_ + ": " + line);
+			}
+		}
+	}
+
+	/**
+	 * Returns number of the name, adding it if needed. Limit is checked before the name is written, so names file
+	 * never has names which can not be referred to
+	 */
+	private int getNumber(Names names, String kind, String name, int maxNumber) throws IOException {
+		Integer number = names.getNumber(name);
+		if (number != null) {
+			return number;
+		}
+		if (name.isEmpty() || name.contains(SEPARATOR) || name.contains("\n")) {
+			throw new IllegalArgumentException("Name must not be empty or contain tabs or line breaks: " + name);
+		}
+		if (names.size() > maxNumber) {
+			throw new IOException("Too many names of kind " + kind + " in index");
+		}
+		writeName(kind + SEPARATOR + name);
+		return names.add(name);
+	}
+
+	private int getModeNumber(Mode mode) throws IOException {
+		Integer number = modeNumbers_.get(mode);
+		if (number != null) {
+			return number;
+		}
+		if (modes_.size() > MAX_SHORT_NUMBER) {
+			throw new IOException("Too many modes in index");
+		}
+		writeName(KIND_MODE + SEPARATOR + mode.getResolution().name() + SEPARATOR + mode.getDensity().name());
+		// Stored mode may be activated or not, index keeps its own instance
+		Mode storedMode = new Mode(mode.getResolution(), mode.getDensity());
+		modeNumbers_.put(storedMode, modes_.size());
+		modes_.add(storedMode);
+		return modes_.size() - 1;
+	}
+
+	private void writeName(String line) throws IOException {
+		if (namesOutput_ == null) {
+			namesOutput_ = new FileOutputStream(namesFile_, true);
+		}
+		namesOutput_.write((line + "\n").getBytes(CHARSET));
+		namesOutput_.flush();
+	}
+
+	private void checkIsOpen() {
+		if (isClosed_) {
+			throw new IllegalStateException("Index is closed");
+		}
+	}
+
+	/**
+	 * Stored record and its distance from the looked up hash
+	 */
+	public static class Entry {
+		private final String device_;
+		private final String run_;
+		private final Mode mode_;
+		private final long hash_;
+		private final int distance_;
+
+		private Entry(String device, String run, Mode mode, long hash, int distance) {
+			device_ = device;
+			run_ = run;
+			mode_ = mode;
+			hash_ = hash;
+			distance_ = distance;
+		}
+
+		public String getDevice() {
+			return device_;
+		}
+
+		public String getRun() {
+			return run_;
+		}
+
+		public Mode getMode() {
+			return mode_;
+		}
+
+		public long getHash() {
+			return hash_;
+		}
+
+		/**
+		 * Returns number of bits the record differs from the looked up hash in
+		 */
+		public int getDistance() {
+			return distance_;
+		}
+
+		@Override
+		public String toString() {
+			return run_ + "/" + device_ + "/" + mode_.getResolution() + "_" + mode_.getDensity() + ": " + Long.toHexString(hash_) + " (" + distance_ + ")";
+		}
+	}
+
+	/**
+	 * Names numbered in order of addition
+	 */
+	private static class Names {
+		private final List<String> names_ = new ArrayList<>();
+		private final Map<String, Integer> numbers_ = new HashMap<>();
+
+		private int add(String name) {
+			numbers_.put(name, names_.size());
+			names_.add(name);
+			return names_.size() - 1;
+		}
+
+		private Integer getNumber(String name) {
+			return numbers_.get(name);
+		}
+
+		private String get(int number) {
+			return names_.get(number);
+		}
+
+		private int size() {
+			return names_.size();
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package com.weezlabs.libs.screenshoter.journal;
+
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.model.Device;
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of modes completed by a screenshots job. Every line holds mode, name of the file its screenshot is
+ * stored in, file's CRC-32 and length. Line is flushed as soon as screenshot is written, so the journal survives
+ * killed JVM. Torn or unknown lines are ignored on reading.
+ */
+public class JobJournal {
+	public static final String FILE_NAME_SUFFIX = "journal.log";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String HEADER = "# screenshoter job journal v1";
+	private static final String RECORD_DONE = "DONE";
+	private static final String SEPARATOR = "\t";
+
+	private final File file_;
+	// Journal is read and cleared on job's thread which may be virtual, monitor would pin it during file I/O
+	private final ReentrantLock lock_ = new ReentrantLock();
+	private OutputStream outputStream_;
+
+	public JobJournal(@NonNull File file) {
+		file_ = file;
+	}
+
+	public File getFile() {
+		return file_;
+	}
+
+	/**
+	 * Removes all records
+	 */
+	public void clear() throws IOException {
+		lock_.lock();
+		try {
+			close();
+			try (OutputStream outputStream = new FileOutputStream(file_)) {
+				outputStream.write((HEADER + "\n").getBytes(CHARSET));
+			}
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Appends record of completed mode
+	 *
+	 * @param fileName Name of file screenshot is stored in, relative to journal directory
+	 * @param checksum CRC-32 of the file
+	 * @param length   File length
+	 */
+	public void recordCompleted(@NonNull Mode mode, @NonNull String fileName, long checksum, long length) throws IOException {
+		lock_.lock();
+		try {
+			if (outputStream_ == null) {
+				outputStream_ = new FileOutputStream(file_, true);
+			}
+			String line = RECORD_DONE + SEPARATOR + mode.getResolution().name() + SEPARATOR + mode.getDensity().name()
+					+ SEPARATOR + fileName + SEPARATOR + Long.toHexString(checksum) + SEPARATOR + length + "\n";
+			outputStream_.write(line.getBytes(CHARSET));
+			outputStream_.flush();
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Returns recorded entries. The last record wins if mode was recorded several times
+	 */
+	public List<Entry> read() throws IOException {
+		lock_.lock();
+		try {
+			Map<String, Entry> entries = new LinkedHashMap<>();
+			if (!file_.exists()) {
+				return new ArrayList<>();
+			}
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file_), CHARSET))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					Entry entry = parseLine(line);
+					if (entry != null) {
+						String key = entry.mode_.getResolution().name() + "_" + entry.mode_.getDensity().name();
+						entries.remove(key);
+						entries.put(key, entry);
+					}
+				}
+			}
+			return new ArrayList<>(entries.values());
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Returns modes whose recorded files exist and match their checksums
+	 *
+	 * @param fileNames Names of files the job writes. Entries of other files, e.g. written before output format was
+	 *                  changed, are not valid
+	 */
+	public List<Mode> getVerifiedModes(@NonNull Set<String> fileNames) throws IOException {
+		File directory = file_.getAbsoluteFile().getParentFile();
+		List<Mode> modes = new ArrayList<>();
+		for (Entry entry : read()) {
+			if (fileNames.contains(entry.getFileName()) && entry.isValid(directory)) {
+				modes.add(entry.getMode());
+			} else {
+				System.out.println("Journal entry is not valid, mode will be processed again: " + entry.getFileName());
+			}
+		}
+		return modes;
+	}
+
+	public void close() {
+		lock_.lock();
+		try {
+			if (outputStream_ != null) {
+				try {
+					outputStream_.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				outputStream_ = null;
+			}
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Returns CRC-32 of the file
+	 */
+	public static long getChecksum(@NonNull File file) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream inputStream = new FileInputStream(file)) {
+			int count;
+			while ((count = inputStream.read(buffer)) != -1) {
+				crc.update(buffer, 0, count);
+			}
+		}
+		return crc.getValue();
+	}
+
+	private static Entry parseLine(String line) {
+		String[] parts = line.split(SEPARATOR);
+		if (parts.length != 6 || !RECORD_DONE.equals(parts[0])) {
+			return null;
+		}
+		try {
+			Mode mode = new Mode(Device.Resolution.valueOf(parts[1]), Device.Dpi.valueOf(parts[2]));
+			return new Entry(mode, parts[3], Long.parseLong(parts[4], 16), Long.parseLong(parts[5]));
+		} catch (IllegalArgumentException e) {
+			// Torn line written when JVM was killed
+			return null;
+		}
+	}
+
+	public static class Entry {
+		private final Mode mode_;
+		private final String fileName_;
+		private final long checksum_;
+		private final long length_;
+
+		private Entry(Mode mode, String fileName, long checksum, long length) {
+			mode_ = mode;
+			fileName_ = fileName;
+			checksum_ = checksum;
+			length_ = length;
+		}
+
+		public Mode getMode() {
+			return mode_;
+		}
+
+		public String getFileName() {
+			return fileName_;
+		}
+
+		public long getChecksum() {
+			return checksum_;
+		}
+
+		public long getLength() {
+			return length_;
+		}
+
+		/**
+		 * Checks that recorded file exists in the directory and was not changed
+		 */
+		public boolean isValid(@NonNull File directory) {
+			File file = new File(directory, fileName_);
+			try {
+				return file.isFile() && file.length() == length_ && JobJournal.getChecksum(file) == checksum_;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package com.weezlabs.libs.screenshoter.metrics;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Registers {@link JobMetrics} histograms in platform MBean server, one MBean per phase:<br>
+ * <code>com.weezlabs.screenshoter:type=JobMetrics,name="&lt;metrics name&gt;",phase=&lt;phase&gt;</code>
+ */
+public class JmxMetricsExporter {
+	public static final String DOMAIN = "com.weezlabs.screenshoter";
+
+	private JmxMetricsExporter() {
+	}
+
+	/**
+	 * Registers MBeans for all phases. MBeans registered for metrics with the same name before are replaced
+	 */
+	public static void register(@NonNull JobMetrics metrics) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (Phase phase : Phase.values()) {
+			try {
+				ObjectName objectName = getObjectName(metrics.getName(), phase);
+				if (server.isRegistered(objectName)) {
+					server.unregisterMBean(objectName);
+				}
+				server.registerMBean(new StandardMBean(new PhaseStatistics(metrics.getHistogram(phase), phase),
+						PhaseStatisticsMXBean.class, true), objectName);
+			} catch (JMException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public static void unregister(@NonNull JobMetrics metrics) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (Phase phase : Phase.values()) {
+			try {
+				ObjectName objectName = getObjectName(metrics.getName(), phase);
+				if (server.isRegistered(objectName)) {
+					server.unregisterMBean(objectName);
+				}
+			} catch (JMException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static ObjectName getObjectName(String name, Phase phase) throws JMException {
+		return new ObjectName(DOMAIN + ":type=JobMetrics,name=" + ObjectName.quote(name) + ",phase=" + phase);
+	}
+
+	private static class PhaseStatistics implements PhaseStatisticsMXBean {
+		private final LatencyHistogram histogram_;
+		private final Phase phase_;
+
+		private PhaseStatistics(LatencyHistogram histogram, Phase phase) {
+			histogram_ = histogram;
+			phase_ = phase;
+		}
+
+		@Override
+		public String getPhase() {
+			return phase_.name();
+		}
+
+		@Override
+		public long getCount() {
+			return histogram_.getCount();
+		}
+
+		@Override
+		public double getTotalMs() {
+			return histogram_.getTotalMicros() / 1000.0;
+		}
+
+		@Override
+		public double getMeanMs() {
+			return histogram_.getMeanMicros() / 1000.0;
+		}
+
+		@Override
+		public double getMinMs() {
+			return histogram_.getMinMicros() / 1000.0;
+		}
+
+		@Override
+		public double getMaxMs() {
+			return histogram_.getMaxMicros() / 1000.0;
+		}
+
+		@Override
+		public double getP50Ms() {
+			return histogram_.getPercentileMicros(50) / 1000.0;
+		}
+
+		@Override
+		public double getP90Ms() {
+			return histogram_.getPercentileMicros(90) / 1000.0;
+		}
+
+		@Override
+		public double getP99Ms() {
+			return histogram_.getPercentileMicros(99) / 1000.0;
+		}
+
+		@Override
+		public void reset() {
+			histogram_.reset();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.weezlabs.libs.screenshoter.metrics;
+
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects phase latencies of screenshot jobs running on one device. Keeps a histogram per {@link Phase} and
+ * timings of every processed mode, and passes every measurement to listeners.
+ * Can be exposed via JMX with {@link JmxMetricsExporter}.
+ */
+public class JobMetrics {
+	private final String name_;
+	private final Map<Phase, LatencyHistogram> histograms_ = new EnumMap<>(Phase.class);
+	private final List<ModeTimings> modeTimings_ = new CopyOnWriteArrayList<>();
+	private final List<MetricsListener> listeners_ = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @param name Metrics name, usually device serial number
+	 */
+	public JobMetrics(@NonNull String name) {
+		name_ = name;
+		for (Phase phase : Phase.values()) {
+			histograms_.put(phase, new LatencyHistogram());
+		}
+	}
+
+	public String getName() {
+		return name_;
+	}
+
+	public LatencyHistogram getHistogram(@NonNull Phase phase) {
+		return histograms_.get(phase);
+	}
+
+	/**
+	 * Returns timings of modes processed since the last reset in processing order
+	 */
+	public List<ModeTimings> getModeTimings() {
+		return Collections.unmodifiableList(new ArrayList<>(modeTimings_));
+	}
+
+	/**
+	 * Starts collecting timings for the mode. Returned object is passed to {@link JobMetrics#record(ModeTimings, Phase, long)}
+	 */
+	public ModeTimings startMode(@NonNull Mode mode) {
+		ModeTimings timings = new ModeTimings(mode);
+		modeTimings_.add(timings);
+		return timings;
+	}
+
+	/**
+	 * Records phase duration. May be called from any thread
+	 *
+	 * @param timings       Timings of mode the phase belongs to. Null if phase does not belong to any mode
+	 * @param phase         Measured phase
+	 * @param durationNanos Phase duration
+	 */
+	public void record(@Nullable ModeTimings timings, @NonNull Phase phase, long durationNanos) {
+		histograms_.get(phase).record(durationNanos, TimeUnit.NANOSECONDS);
+		if (timings != null) {
+			timings.add(phase, durationNanos);
+		}
+		for (MetricsListener listener : listeners_) {
+			listener.onPhaseMeasured(this, timings != null ? timings.getMode() : null, phase, durationNanos);
+		}
+	}
+
+	/**
+	 * Records time passed since startNanos
+	 *
+	 * @param startNanos Phase start time got from {@link System#nanoTime()}
+	 */
+	public void recordSince(@Nullable ModeTimings timings, @NonNull Phase phase, long startNanos) {
+		record(timings, phase, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Clears histograms and mode timings
+	 */
+	public void reset() {
+		for (LatencyHistogram histogram : histograms_.values()) {
+			histogram.reset();
+		}
+		modeTimings_.clear();
+	}
+
+	public void addListener(@NonNull MetricsListener listener) {
+		listeners_.add(listener);
+	}
+
+	public void removeListener(MetricsListener listener) {
+		listeners_.remove(listener);
+	}
+
+	/**
+	 * Returns human readable table of phase latencies
+	 */
+	public String getSummary() {
+		StringBuilder builder = new StringBuilder("Job metrics for ").append(name_).append(", ms:\n");
+		builder.append(String.format("%-18s %6s %9s %9s %9s %9s %9s%n", "phase", "count", "total", "mean", "p50", "p90", "max"));
+		for (Phase phase : Phase.values()) {
+			LatencyHistogram histogram = histograms_.get(phase);
+			if (histogram.getCount() == 0) {
+				continue;
+			}
+			builder.append(String.format("%-18s %6d %9.1f %9.1f %9.1f %9.1f %9.1f%n", phase, histogram.getCount(),
+					histogram.getTotalMicros() / 1000.0, histogram.getMeanMicros() / 1000.0,
+					histogram.getPercentileMicros(50) / 1000.0, histogram.getPercentileMicros(90) / 1000.0,
+					histogram.getMaxMicros() / 1000.0));
+		}
+		return builder.toString();
+	}
+
+	public interface MetricsListener {
+		/**
+		 * Called from job and pipeline threads right after phase is finished
+		 *
+		 * @param mode Mode the phase belongs to. Null if phase does not belong to any mode
+		 */
+		void onPhaseMeasured(JobMetrics metrics, @Nullable Mode mode, Phase phase, long durationNanos);
+	}
+}
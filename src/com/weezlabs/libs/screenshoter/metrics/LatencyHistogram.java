@@ -0,0 +1,121 @@
+package com.weezlabs.libs.screenshoter.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations with microsecond resolution. Every power of two range is split into 8 buckets,
+ * so percentiles are accurate to 12.5%. Min, max, count and sum are exact.
+ * <p/>
+ * Values may be recorded from any thread. {@link LatencyHistogram#reset()} running concurrently with recording
+ * may lose a few values.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets_ = new AtomicLongArray(BUCKETS_COUNT);
+	private final AtomicLong count_ = new AtomicLong();
+	private final AtomicLong totalMicros_ = new AtomicLong();
+	private final AtomicLong minMicros_ = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong maxMicros_ = new AtomicLong();
+
+	public void record(long duration, TimeUnit unit) {
+		long micros = Math.max(0, unit.toMicros(duration));
+		buckets_.incrementAndGet(getBucketIndex(micros));
+		count_.incrementAndGet();
+		totalMicros_.addAndGet(micros);
+		long min;
+		while (micros < (min = minMicros_.get()) && !minMicros_.compareAndSet(min, micros)) {
+			// Retry until min is updated or other thread set smaller value
+		}
+		long max;
+		while (micros > (max = maxMicros_.get()) && !maxMicros_.compareAndSet(max, micros)) {
+			// Retry until max is updated or other thread set bigger value
+		}
+	}
+
+	public long getCount() {
+		return count_.get();
+	}
+
+	public long getTotalMicros() {
+		return totalMicros_.get();
+	}
+
+	/**
+	 * Returns min recorded value or 0 if nothing was recorded
+	 */
+	public long getMinMicros() {
+		long min = minMicros_.get();
+		return min == Long.MAX_VALUE ? 0 : min;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros_.get();
+	}
+
+	public double getMeanMicros() {
+		long count = count_.get();
+		return count == 0 ? 0 : (double) totalMicros_.get() / count;
+	}
+
+	/**
+	 * Returns value below which the given percent of recorded values fall. 0 if nothing was recorded
+	 *
+	 * @param percentile Percentile in range 0..100
+	 */
+	public long getPercentileMicros(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be in range 0..100");
+		}
+		long[] counts = new long[BUCKETS_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKETS_COUNT; i++) {
+			counts[i] = buckets_.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= target) {
+				return Math.min(getBucketUpperBound(i), getMaxMicros());
+			}
+		}
+		return getMaxMicros();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS_COUNT; i++) {
+			buckets_.set(i, 0);
+		}
+		count_.set(0);
+		totalMicros_.set(0);
+		minMicros_.set(Long.MAX_VALUE);
+		maxMicros_.set(0);
+	}
+
+	private static int getBucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long getBucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,56 @@
+package com.weezlabs.libs.screenshoter.metrics;
+
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent in every phase while processing one mode. Phases run on job and pipeline threads, so values may be
+ * still growing while frame is being encoded.
+ */
+public class ModeTimings {
+	private final Mode mode_;
+	private final AtomicLongArray nanos_ = new AtomicLongArray(Phase.values().length);
+
+	ModeTimings(Mode mode) {
+		mode_ = mode;
+	}
+
+	public Mode getMode() {
+		return mode_;
+	}
+
+	public long getNanos(Phase phase) {
+		return nanos_.get(phase.ordinal());
+	}
+
+	public long getMillis(Phase phase) {
+		return TimeUnit.NANOSECONDS.toMillis(getNanos(phase));
+	}
+
+	/**
+	 * Returns sum of all phases. Pipeline phases overlap with the next modes, so it is not mode's wall time
+	 */
+	public long getTotalNanos() {
+		long total = 0;
+		for (int i = 0; i < nanos_.length(); i++) {
+			total += nanos_.get(i);
+		}
+		return total;
+	}
+
+	void add(Phase phase, long nanos) {
+		nanos_.addAndGet(phase.ordinal(), nanos);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(mode_.getResolution()).append(' ').append(mode_.getDensity()).append(':');
+		for (Phase phase : Phase.values()) {
+			builder.append(' ').append(phase).append('=').append(getMillis(phase)).append("ms");
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,51 @@
+package com.weezlabs.libs.screenshoter.metrics;
+
+/**
+ * Measured parts of a screenshot job
+ */
+public enum Phase {
+	/**
+	 * Shell round trip of wm/am commands changing display params
+	 */
+	SHELL_COMMAND,
+	/**
+	 * Waiting for display to settle after params change. Includes frames pulled by the settle strategy
+	 */
+	SETTLE_WAIT,
+	/**
+	 * Pulling framebuffer from device. In deferred transfer mode, capturing screenshot to device storage
+	 */
+	FRAMEBUFFER_PULL,
+	/**
+	 * Pulling screenshot captured to device storage in deferred transfer mode
+	 */
+	TRANSFER,
+	/**
+	 * Waiting for a free place in the encoding queue
+	 */
+	QUEUE_WAIT,
+	/**
+	 * Converting framebuffer pixels to image
+	 */
+	CONVERSION,
+	/**
+	 * Hashing converted pixels to find duplicate frames and computing perceptual hash for hash index
+	 */
+	HASH,
+	/**
+	 * Comparing frame with its baseline
+	 */
+	DIFF,
+	/**
+	 * Encoding image to png
+	 */
+	ENCODE,
+	/**
+	 * Writing encoded image to disk
+	 */
+	WRITE,
+	/**
+	 * Running a post processing stage and writing its image. Runs in parallel with encoding and writing
+	 */
+	POST_PROCESS
+}
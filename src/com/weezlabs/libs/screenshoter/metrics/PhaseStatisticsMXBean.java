@@ -0,0 +1,26 @@
+package com.weezlabs.libs.screenshoter.metrics;
+
+/**
+ * JMX view of one phase histogram. Registered by {@link JmxMetricsExporter}
+ */
+public interface PhaseStatisticsMXBean {
+	String getPhase();
+
+	long getCount();
+
+	double getTotalMs();
+
+	double getMeanMs();
+
+	double getMinMs();
+
+	double getMaxMs();
+
+	double getP50Ms();
+
+	double getP90Ms();
+
+	double getP99Ms();
+
+	void reset();
+}
@@ -0,0 +1,798 @@
+package com.weezlabs.libs.screenshoter.pipeline;
+
+import com.android.ddmlib.RawImage;
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.archive.ScreenShotArchiveWriter;
+import com.weezlabs.libs.screenshoter.capture.CapturedFrame;
+import com.weezlabs.libs.screenshoter.diff.VisualDiffEngine;
+import com.weezlabs.libs.screenshoter.image.FrameHash;
+import com.weezlabs.libs.screenshoter.image.ImageFormat;
+import com.weezlabs.libs.screenshoter.image.PerceptualHash;
+import com.weezlabs.libs.screenshoter.image.PngFormat;
+import com.weezlabs.libs.screenshoter.image.RawImageConverter;
+import com.weezlabs.libs.screenshoter.image.RegionOfInterest;
+import com.weezlabs.libs.screenshoter.index.PerceptualHashIndex;
+import com.weezlabs.libs.screenshoter.journal.JobJournal;
+import com.weezlabs.libs.screenshoter.metrics.JobMetrics;
+import com.weezlabs.libs.screenshoter.metrics.ModeTimings;
+import com.weezlabs.libs.screenshoter.metrics.Phase;
+import com.weezlabs.libs.screenshoter.model.Mode;
+import com.weezlabs.libs.screenshoter.postprocess.PostProcessor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes and writes captured frames in background so device can switch to the next mode while previous frame is
+ * still being compressed. Captured frames are put to a bounded queue which is drained by a pool of workers.
+ * {@link ScreenShotPipeline#submit(RawImage, File)} blocks while the queue is full.
+ * <p/>
+ * Pipeline may also run frames on an executor shared with other pipelines instead of own workers. That keeps number of
+ * encoder threads bounded when many devices are processed at once.
+ * <p/>
+ * Frames are cropped and blanked by mode's {@link RegionOfInterest} while they are converted, so hashes, comparison and
+ * encoding see only the kept pixels.
+ * <p/>
+ * Converted pixels are hashed with {@link FrameHash} before encoding. Frame identical to an already written one is not
+ * encoded again, it is stored according to {@link DeduplicationMode}.
+ * <p/>
+ * Frames are written to separate files or, if archive is set, appended to one {@link ScreenShotArchiveWriter} under
+ * their file names. Files written for frames with known mode are recorded to {@link JobJournal} if it is set.
+ * <p/>
+ * If {@link VisualDiffEngine} is set, frames with known mode are compared with their baselines before they are written.
+ * Perceptual hashes of frames with known mode are added to {@link PerceptualHashIndex} if it is set. Frames are passed
+ * to {@link PostProcessor} if it is set, its stages run while frame is encoded.
+ */
+public class ScreenShotPipeline {
+	public static final int DEFAULT_QUEUE_CAPACITY = 4;
+	/**
+	 * Name of file listing duplicates which are not stored as images. Written to the duplicates directory
+	 */
+	public static final String DUPLICATES_MANIFEST = "duplicates.properties";
+	private static final Frame POISON_PILL = new Frame(null, null, null, null);
+	private static final AtomicInteger PIPELINES_COUNT = new AtomicInteger();
+	private static final PngFormat PNG_DECODER = new PngFormat();
+
+	private final BlockingQueue<Frame> queue_;
+	private final Thread[] workers_;
+	// Used instead of queue and workers when frames run on shared executor. Permit is held by every queued frame
+	private final Executor encoderExecutor_;
+	private final Semaphore framePermits_;
+	private final int queueCapacity_;
+	private final FrameListener frameListener_;
+	private final AtomicInteger failedFrames_ = new AtomicInteger();
+	private final AtomicInteger duplicateFrames_ = new AtomicInteger();
+	private final ConcurrentMap<FrameHash, WrittenFrame> writtenFrames_ = new ConcurrentHashMap<>();
+	// Duplicate to original file, for duplicates which are not stored as images
+	private final Map<File, File> manifestEntries_ = new HashMap<>();
+	// Not a monitor, manifests are read and written by job's thread which may be virtual
+	private final ReentrantLock manifestLock_ = new ReentrantLock();
+	private final Map<Mode, RegionOfInterest> regionsOfInterest_ = new ConcurrentHashMap<>();
+	private volatile DeduplicationMode deduplicationMode_ = DeduplicationMode.HARD_LINK;
+	private volatile ImageFormat imageFormat_ = new PngFormat();
+	private volatile ScreenShotArchiveWriter archive_;
+	private volatile JobJournal journal_;
+	private volatile VisualDiffEngine visualDiff_;
+	private volatile PostProcessor postProcessor_;
+	private volatile HashIndexTarget hashIndexTarget_;
+	private volatile RegionOfInterest defaultRegionOfInterest_;
+	private volatile boolean isAborted_;
+	private volatile JobMetrics jobMetrics_;
+	private boolean isFinished_;
+
+	/**
+	 * @param workersCount  Number of encoder/writer threads
+	 * @param queueCapacity Max number of captured frames waiting for encoding
+	 * @param frameListener Frame listener. Called from worker threads
+	 */
+	public ScreenShotPipeline(int workersCount, int queueCapacity, @Nullable FrameListener frameListener) {
+		if (workersCount < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("workersCount and queueCapacity must be positive");
+		}
+		queue_ = new ArrayBlockingQueue<>(queueCapacity);
+		frameListener_ = frameListener;
+		encoderExecutor_ = null;
+		framePermits_ = null;
+		queueCapacity_ = queueCapacity;
+		workers_ = new Thread[workersCount];
+		int pipelineNumber = PIPELINES_COUNT.incrementAndGet();
+		for (int i = 0; i < workersCount; i++) {
+			workers_[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					processFrames();
+				}
+			}, "screenshot-pipeline-" + pipelineNumber + "-" + i);
+			workers_[i].setDaemon(true);
+			workers_[i].start();
+		}
+	}
+
+	/**
+	 * Creates pipeline running frames on the executor. Executor should be bounded, frames of several pipelines can share it
+	 *
+	 * @param encoderExecutor Executor encoding and writing frames
+	 * @param queueCapacity   Max number of captured frames waiting for encoding or being encoded
+	 * @param frameListener   Frame listener. Called from executor threads
+	 */
+	public ScreenShotPipeline(@NonNull Executor encoderExecutor, int queueCapacity, @Nullable FrameListener frameListener) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("queueCapacity must be positive");
+		}
+		queue_ = null;
+		workers_ = new Thread[0];
+		frameListener_ = frameListener;
+		encoderExecutor_ = encoderExecutor;
+		framePermits_ = new Semaphore(queueCapacity);
+		queueCapacity_ = queueCapacity;
+	}
+
+	/**
+	 * Creates pipeline with a worker per spare processor and {@link ScreenShotPipeline#DEFAULT_QUEUE_CAPACITY}
+	 */
+	public static ScreenShotPipeline createDefault(@Nullable FrameListener frameListener) {
+		int workersCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		return new ScreenShotPipeline(workersCount, DEFAULT_QUEUE_CAPACITY, frameListener);
+	}
+
+	/**
+	 * Sets metrics to record queue wait, conversion, encoding and writing time to
+	 */
+	public void setJobMetrics(@Nullable JobMetrics jobMetrics) {
+		jobMetrics_ = jobMetrics;
+	}
+
+	public ImageFormat getImageFormat() {
+		return imageFormat_;
+	}
+
+	/**
+	 * Sets format frames are encoded in. PNG is used by default
+	 */
+	public void setImageFormat(@NonNull ImageFormat imageFormat) {
+		imageFormat_ = imageFormat;
+	}
+
+	public ScreenShotArchiveWriter getArchive() {
+		return archive_;
+	}
+
+	/**
+	 * Sets archive frames are appended to instead of separate files. Should be set before the first frame is submitted.
+	 * Archive is not closed by pipeline
+	 */
+	public void setArchive(@Nullable ScreenShotArchiveWriter archive) {
+		archive_ = archive;
+	}
+
+	public JobJournal getJournal() {
+		return journal_;
+	}
+
+	/**
+	 * Sets journal completed modes are recorded to. Not used for frames written to archive
+	 */
+	public void setJournal(@Nullable JobJournal journal) {
+		journal_ = journal;
+	}
+
+	public VisualDiffEngine getVisualDiff() {
+		return visualDiff_;
+	}
+
+	/**
+	 * Sets engine comparing frames with baselines. Results are reported to engine's listener. Comparison failures
+	 * do not fail frames
+	 */
+	public void setVisualDiff(@Nullable VisualDiffEngine visualDiff) {
+		visualDiff_ = visualDiff;
+	}
+
+	/**
+	 * Sets index perceptual hashes of frames are added to. Index is not flushed or closed by pipeline
+	 *
+	 * @param device Device name records are keyed by
+	 * @param run    Run name records are keyed by
+	 */
+	public void setHashIndex(@NonNull PerceptualHashIndex hashIndex, @NonNull String device, @NonNull String run) {
+		hashIndexTarget_ = new HashIndexTarget(hashIndex, device, run);
+	}
+
+	@Nullable
+	public PerceptualHashIndex getHashIndex() {
+		HashIndexTarget hashIndexTarget = hashIndexTarget_;
+		return hashIndexTarget != null ? hashIndexTarget.index_ : null;
+	}
+
+	public void removeHashIndex() {
+		hashIndexTarget_ = null;
+	}
+
+	/**
+	 * Sets region of interest used for frames of modes without own region and frames with unknown mode. Whole frames
+	 * are kept if null
+	 */
+	public void setDefaultRegionOfInterest(@Nullable RegionOfInterest regionOfInterest) {
+		defaultRegionOfInterest_ = regionOfInterest;
+	}
+
+	/**
+	 * Sets region of interest used for frames of the mode instead of default one. Region is removed if null
+	 */
+	public void setRegionOfInterest(@NonNull Mode mode, @Nullable RegionOfInterest regionOfInterest) {
+		if (regionOfInterest != null) {
+			regionsOfInterest_.put(mode, regionOfInterest);
+		} else {
+			regionsOfInterest_.remove(mode);
+		}
+	}
+
+	@Nullable
+	public RegionOfInterest getRegionOfInterest(@Nullable Mode mode) {
+		RegionOfInterest regionOfInterest = mode != null ? regionsOfInterest_.get(mode) : null;
+		return regionOfInterest != null ? regionOfInterest : defaultRegionOfInterest_;
+	}
+
+	public PostProcessor getPostProcessor() {
+		return postProcessor_;
+	}
+
+	/**
+	 * Sets post processor converted frames are passed to. Pipeline does not wait for its stages on
+	 * {@link ScreenShotPipeline#finish()}
+	 */
+	public void setPostProcessor(@Nullable PostProcessor postProcessor) {
+		postProcessor_ = postProcessor;
+	}
+
+	public DeduplicationMode getDeduplicationMode() {
+		return deduplicationMode_;
+	}
+
+	/**
+	 * Sets how identical frames are stored. Should be set before the first frame is submitted
+	 */
+	public void setDeduplicationMode(@NonNull DeduplicationMode deduplicationMode) {
+		deduplicationMode_ = deduplicationMode;
+	}
+
+	/**
+	 * Puts captured frame to the encoding queue. Blocks while the queue is full
+	 */
+	public void submit(@NonNull RawImage rawImage, @NonNull File output) throws InterruptedException {
+		submit(rawImage, output, null, null);
+	}
+
+	/**
+	 * Puts captured frame to the encoding queue. Blocks while the queue is full
+	 *
+	 * @param mode        Mode frame was captured in. Stored to archive index
+	 * @param modeTimings Timings of the mode frame belongs to. Pipeline phases are added to them
+	 */
+	public void submit(@NonNull RawImage rawImage, @NonNull File output, @Nullable Mode mode, @Nullable ModeTimings modeTimings) throws InterruptedException {
+		submit(CapturedFrame.fromRawImage(rawImage), output, mode, modeTimings);
+	}
+
+	/**
+	 * Puts captured frame to the encoding queue. Blocks while the queue is full. PNG frames are written without
+	 * re-encoding if frames are stored as PNG
+	 *
+	 * @param mode        Mode frame was captured in. Stored to archive index
+	 * @param modeTimings Timings of the mode frame belongs to. Pipeline phases are added to them
+	 */
+	public void submit(@NonNull CapturedFrame capturedFrame, @NonNull File output, @Nullable Mode mode, @Nullable ModeTimings modeTimings) throws InterruptedException {
+		if (isFinished_) {
+			throw new IllegalStateException("Pipeline is already finished");
+		}
+		long startTime = System.nanoTime();
+		Frame frame = new Frame(capturedFrame, output, mode, modeTimings);
+		if (encoderExecutor_ != null) {
+			execute(frame);
+		} else {
+			queue_.put(frame);
+		}
+		JobMetrics jobMetrics = jobMetrics_;
+		if (jobMetrics != null) {
+			jobMetrics.recordSince(modeTimings, Phase.QUEUE_WAIT, startTime);
+		}
+	}
+
+	/**
+	 * Waits until all submitted frames are written and stops workers. Pipeline cannot be used after that
+	 *
+	 * @return true if all frames were written successfully
+	 */
+	public boolean finish() throws InterruptedException {
+		if (encoderExecutor_ != null) {
+			isFinished_ = true;
+			// All permits are free only when every frame is processed
+			framePermits_.acquire(queueCapacity_);
+			framePermits_.release(queueCapacity_);
+		} else {
+			if (!isFinished_) {
+				isFinished_ = true;
+				for (int i = 0; i < workers_.length; i++) {
+					queue_.put(POISON_PILL);
+				}
+			}
+			for (Thread worker : workers_) {
+				worker.join();
+			}
+		}
+		if (!writeManifests()) {
+			return false;
+		}
+		return failedFrames_.get() == 0 && !isAborted_;
+	}
+
+	/**
+	 * Drops frames waiting in the queue and stops workers. Frames being encoded at the moment are finished
+	 */
+	public void abort() {
+		isAborted_ = true;
+		isFinished_ = true;
+		if (queue_ == null) {
+			// Frames queued to shared executor are skipped when they start
+			return;
+		}
+		queue_.clear();
+		for (int i = 0; i < workers_.length; i++) {
+			// Queue may be smaller than workers count. Interrupt workers which cannot get a pill
+			if (!queue_.offer(POISON_PILL)) {
+				workers_[i].interrupt();
+			}
+		}
+	}
+
+	public int getFailedFramesCount() {
+		return failedFrames_.get();
+	}
+
+	/**
+	 * Returns number of frames stored as duplicates of already written frames
+	 */
+	public int getDuplicateFramesCount() {
+		return duplicateFrames_.get();
+	}
+
+	private void processFrames() {
+		while (true) {
+			Frame frame;
+			try {
+				frame = queue_.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (frame == POISON_PILL) {
+				return;
+			}
+			if (isAborted_) {
+				continue;
+			}
+			processFrame(frame);
+		}
+	}
+
+	/**
+	 * Runs frame on shared executor. Blocks while queue capacity is used by other frames of this pipeline
+	 */
+	private void execute(final Frame frame) throws InterruptedException {
+		framePermits_.acquire();
+		try {
+			encoderExecutor_.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (!isAborted_) {
+							processFrame(frame);
+						}
+					} finally {
+						framePermits_.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			framePermits_.release();
+			e.printStackTrace();
+			failedFrames_.incrementAndGet();
+			if (frameListener_ != null) {
+				frameListener_.onFrameFailed(frame.output_);
+			}
+		}
+	}
+
+	private void processFrame(Frame frame) {
+		if (writeFrame(frame)) {
+			if (frameListener_ != null) {
+				if (frame.duplicateOf_ != null) {
+					frameListener_.onFrameDuplicated(frame.output_, frame.duplicateOf_);
+				} else {
+					frameListener_.onFrameWritten(frame.output_);
+				}
+			}
+		} else {
+			failedFrames_.incrementAndGet();
+			if (frameListener_ != null) {
+				frameListener_.onFrameFailed(frame.output_);
+			}
+		}
+	}
+
+	private boolean writeFrame(Frame frame) {
+		JobMetrics jobMetrics = jobMetrics_;
+		WrittenFrame writtenFrame = null;
+		try {
+			long startTime = System.nanoTime();
+			CapturedFrame capturedFrame = frame.capturedFrame_;
+			RegionOfInterest regionOfInterest = getRegionOfInterest(frame.mode_);
+			// PNG encoded on device is written as is if frames are stored as PNG and nothing is cut from them
+			boolean isPngWrittenAsIs = capturedFrame.isPng() && imageFormat_ instanceof PngFormat && regionOfInterest == null;
+			BufferedImage bufferedImage = isPngWrittenAsIs ? null : toImage(capturedFrame, regionOfInterest);
+			long convertedTime = System.nanoTime();
+			if (jobMetrics != null && bufferedImage != null) {
+				jobMetrics.record(frame.modeTimings_, Phase.CONVERSION, convertedTime - startTime);
+			}
+			inspectFrame(frame, bufferedImage, jobMetrics);
+			if (deduplicationMode_ != DeduplicationMode.DISABLED) {
+				long hashStartTime = System.nanoTime();
+				FrameHash hash;
+				if (bufferedImage != null) {
+					int[] pixels = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+					hash = FrameHash.of(pixels, bufferedImage.getWidth(), bufferedImage.getHeight());
+				} else {
+					hash = FrameHash.of(capturedFrame.getPngData(), capturedFrame.getPngLength());
+				}
+				if (jobMetrics != null) {
+					jobMetrics.recordSince(frame.modeTimings_, Phase.HASH, hashStartTime);
+				}
+				writtenFrame = new WrittenFrame(frame.output_);
+				WrittenFrame original = writtenFrames_.putIfAbsent(hash, writtenFrame);
+				// Original may be still encoding on another worker
+				if (original != null && original.await()) {
+					writtenFrame = null;
+					return storeDuplicate(frame, original);
+				}
+				if (original != null) {
+					// Original failed, this frame takes its place
+					writtenFrames_.replace(hash, original, writtenFrame);
+				}
+			}
+			boolean isWritten = isPngWrittenAsIs
+					? write(frame, capturedFrame.getPngData(), capturedFrame.getPngLength(), jobMetrics)
+					: encodeAndWrite(frame, bufferedImage, jobMetrics);
+			if (writtenFrame != null) {
+				writtenFrame.finish(isWritten, frame.checksum_, frame.length_);
+			}
+			return isWritten;
+		} catch (IOException | RuntimeException e) {
+			// Worker must survive broken frame, otherwise submit() may block forever
+			e.printStackTrace();
+			if (writtenFrame != null) {
+				writtenFrame.finish(false, 0, 0);
+			}
+			return false;
+		} catch (InterruptedException e) {
+			// Pipeline is aborted
+			return false;
+		}
+	}
+
+	/**
+	 * Starts post processing, compares frame with its baseline and adds its perceptual hash to index if they are set.
+	 * Frame written as is is decoded for that only. Failures are printed and do not fail the frame
+	 */
+	private void inspectFrame(Frame frame, @Nullable BufferedImage bufferedImage, JobMetrics jobMetrics) throws InterruptedException {
+		PostProcessor postProcessor = postProcessor_;
+		// Baselines and index records are looked up by mode
+		VisualDiffEngine visualDiff = frame.mode_ != null ? visualDiff_ : null;
+		HashIndexTarget hashIndexTarget = frame.mode_ != null ? hashIndexTarget_ : null;
+		if (postProcessor == null && visualDiff == null && hashIndexTarget == null) {
+			return;
+		}
+		try {
+			BufferedImage image = bufferedImage != null ? bufferedImage : toImage(frame.capturedFrame_, null);
+			if (postProcessor != null) {
+				// Stages run on post processor's workers while this frame is hashed, compared and encoded
+				postProcessor.submit(image, frame.output_, frame.mode_, frame.modeTimings_);
+			}
+			if (hashIndexTarget != null) {
+				long startTime = System.nanoTime();
+				int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+				long hash = PerceptualHash.of(pixels, image.getWidth(), image.getHeight());
+				hashIndexTarget.index_.add(hashIndexTarget.device_, hashIndexTarget.run_, frame.mode_, hash);
+				if (jobMetrics != null) {
+					jobMetrics.recordSince(frame.modeTimings_, Phase.HASH, startTime);
+				}
+			}
+			if (visualDiff != null) {
+				long startTime = System.nanoTime();
+				visualDiff.compare(frame.mode_, image);
+				if (jobMetrics != null) {
+					jobMetrics.recordSince(frame.modeTimings_, Phase.DIFF, startTime);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns frame's pixels as {@link BufferedImage#TYPE_INT_ARGB} image. Raw frames are cropped during conversion,
+	 * PNG frames after decoding
+	 */
+	private static BufferedImage toImage(CapturedFrame capturedFrame, @Nullable RegionOfInterest regionOfInterest) throws IOException {
+		if (capturedFrame.isPng()) {
+			BufferedImage image = PNG_DECODER.decode(new ByteArrayInputStream(capturedFrame.getPngData(), 0, capturedFrame.getPngLength()));
+			return regionOfInterest != null ? regionOfInterest.apply(image) : image;
+		}
+		return regionOfInterest != null
+				? RawImageConverter.convert(capturedFrame.getRawImage(), regionOfInterest)
+				: RawImageConverter.convert(capturedFrame.getRawImage());
+	}
+
+	private boolean encodeAndWrite(Frame frame, BufferedImage bufferedImage, JobMetrics jobMetrics) throws IOException {
+		long startTime = System.nanoTime();
+		// Encoded to memory first, so encoding and disk writing are measured separately
+		EncodedFrameStream encoded = new EncodedFrameStream();
+		imageFormat_.encode(bufferedImage, encoded);
+		if (jobMetrics != null) {
+			jobMetrics.recordSince(frame.modeTimings_, Phase.ENCODE, startTime);
+		}
+		return write(frame, encoded.getBuffer(), encoded.size(), jobMetrics);
+	}
+
+	/**
+	 * Writes encoded frame to archive or to frame's output file
+	 */
+	private boolean write(Frame frame, byte[] data, int length, JobMetrics jobMetrics) throws IOException {
+		long startTime = System.nanoTime();
+		ScreenShotArchiveWriter archive = archive_;
+		if (archive != null) {
+			archive.append(frame.output_.getName(), frame.mode_, data, 0, length);
+		} else {
+			// File left by previous run may be a hard link, writing through it would change the linked file too
+			Files.deleteIfExists(frame.output_.toPath());
+			try (OutputStream outputStream = new FileOutputStream(frame.output_)) {
+				outputStream.write(data, 0, length);
+			}
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, length);
+			frame.checksum_ = crc.getValue();
+			frame.length_ = length;
+			recordToJournal(frame, frame.output_.getName(), frame.checksum_, frame.length_);
+		}
+		if (jobMetrics != null) {
+			jobMetrics.recordSince(frame.modeTimings_, Phase.WRITE, startTime);
+		}
+		return true;
+	}
+
+	/**
+	 * Stores frame as an archive alias, a hard link to the original or as a manifest entry if links are not supported
+	 */
+	private boolean storeDuplicate(Frame frame, WrittenFrame writtenFrame) throws IOException {
+		File original = writtenFrame.output_;
+		frame.duplicateOf_ = original;
+		duplicateFrames_.incrementAndGet();
+		ScreenShotArchiveWriter archive = archive_;
+		if (archive != null) {
+			// Entry shares data with the original, nothing is written
+			archive.addAlias(frame.output_.getName(), frame.mode_, original.getName());
+			return true;
+		}
+		Files.deleteIfExists(frame.output_.toPath());
+		if (deduplicationMode_ == DeduplicationMode.HARD_LINK) {
+			try {
+				Files.createLink(frame.output_.toPath(), original.toPath());
+				recordToJournal(frame, frame.output_.getName(), writtenFrame.checksum_, writtenFrame.length_);
+				return true;
+			} catch (IOException | UnsupportedOperationException e) {
+				System.out.println("Cannot link " + frame.output_ + ", adding it to " + DUPLICATES_MANIFEST + ": " + e.getMessage());
+			}
+		}
+		manifestLock_.lock();
+		try {
+			manifestEntries_.put(frame.output_, original);
+		} finally {
+			manifestLock_.unlock();
+		}
+		if (frame.output_.getAbsoluteFile().getParentFile().equals(original.getAbsoluteFile().getParentFile())) {
+			// Screenshot of this mode is stored in the original file
+			recordToJournal(frame, original.getName(), writtenFrame.checksum_, writtenFrame.length_);
+		}
+		return true;
+	}
+
+	private void recordToJournal(Frame frame, String fileName, long checksum, long length) {
+		JobJournal journal = journal_;
+		if (journal == null || frame.mode_ == null) {
+			return;
+		}
+		try {
+			journal.recordCompleted(frame.mode_, fileName, checksum, length);
+		} catch (IOException e) {
+			// Screenshot is written, the mode will be just processed again on resume
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes manifest to every directory containing not stored duplicates. Entries of existing manifest are kept,
+	 * so resumed job does not lose duplicates found before
+	 *
+	 * @return false if any manifest could not be written
+	 */
+	private boolean writeManifests() {
+		Map<File, Properties> manifests = new HashMap<>();
+		manifestLock_.lock();
+		try {
+			for (Map.Entry<File, File> entry : manifestEntries_.entrySet()) {
+				File dir = entry.getKey().getAbsoluteFile().getParentFile();
+				Properties manifest = manifests.get(dir);
+				if (manifest == null) {
+					manifest = loadManifest(new File(dir, DUPLICATES_MANIFEST));
+					manifests.put(dir, manifest);
+				}
+				File original = entry.getValue().getAbsoluteFile();
+				manifest.setProperty(entry.getKey().getName(), dir.equals(original.getParentFile()) ? original.getName() : original.getPath());
+			}
+			manifestEntries_.clear();
+		} finally {
+			manifestLock_.unlock();
+		}
+		boolean isAllWritten = true;
+		for (Map.Entry<File, Properties> entry : manifests.entrySet()) {
+			try (OutputStream outputStream = new FileOutputStream(new File(entry.getKey(), DUPLICATES_MANIFEST))) {
+				entry.getValue().store(outputStream, "Screenshots identical to the listed files");
+			} catch (IOException e) {
+				e.printStackTrace();
+				isAllWritten = false;
+			}
+		}
+		return isAllWritten;
+	}
+
+	private static Properties loadManifest(File file) {
+		Properties manifest = new Properties();
+		if (file.exists()) {
+			try (InputStream inputStream = new FileInputStream(file)) {
+				manifest.load(inputStream);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return manifest;
+	}
+
+	public interface FrameListener {
+		void onFrameWritten(File output);
+
+		/**
+		 * Called instead of {@link FrameListener#onFrameWritten(File)} for frame identical to already written one
+		 *
+		 * @param original File frame is identical to
+		 */
+		void onFrameDuplicated(File output, File original);
+
+		void onFrameFailed(File output);
+	}
+
+	/**
+	 * How frames identical to already written ones are stored. When archive is set, duplicates are archive entries
+	 * sharing the original's data in both enabled modes
+	 */
+	public enum DeduplicationMode {
+		/**
+		 * Every frame is encoded and written
+		 */
+		DISABLED,
+		/**
+		 * Duplicate is a hard link to the original file. Falls back to {@link DeduplicationMode#MANIFEST} if file
+		 * system does not support links
+		 */
+		HARD_LINK,
+		/**
+		 * Duplicate is not stored, it is listed in {@link ScreenShotPipeline#DUPLICATES_MANIFEST} with original file name
+		 */
+		MANIFEST
+	}
+
+	/**
+	 * First frame with the given hash. Duplicates wait until it is written
+	 */
+	private static class WrittenFrame {
+		private final File output_;
+		private final CountDownLatch latch_ = new CountDownLatch(1);
+		private volatile boolean isWritten_;
+		private volatile long checksum_;
+		private volatile long length_;
+
+		private WrittenFrame(File output) {
+			output_ = output;
+		}
+
+		private void finish(boolean isWritten, long checksum, long length) {
+			checksum_ = checksum;
+			length_ = length;
+			isWritten_ = isWritten;
+			latch_.countDown();
+		}
+
+		/**
+		 * Waits until frame is processed. Returns true if it was written successfully
+		 */
+		private boolean await() throws InterruptedException {
+			latch_.await();
+			return isWritten_;
+		}
+	}
+
+	private static class Frame {
+		private final CapturedFrame capturedFrame_;
+		private final File output_;
+		private final Mode mode_;
+		private final ModeTimings modeTimings_;
+		private File duplicateOf_;
+		private long checksum_;
+		private long length_;
+
+		private Frame(CapturedFrame capturedFrame, File output, Mode mode, ModeTimings modeTimings) {
+			capturedFrame_ = capturedFrame;
+			output_ = output;
+			mode_ = mode;
+			modeTimings_ = modeTimings;
+		}
+	}
+
+	/**
+	 * Index with keys of this pipeline's records
+	 */
+	private static class HashIndexTarget {
+		private final PerceptualHashIndex index_;
+		private final String device_;
+		private final String run_;
+
+		private HashIndexTarget(PerceptualHashIndex index, String device, String run) {
+			index_ = index;
+			device_ = device;
+			run_ = run;
+		}
+	}
+
+	/**
+	 * Gives access to the encoded bytes without copying them
+	 */
+	private static class EncodedFrameStream extends ByteArrayOutputStream {
+		private EncodedFrameStream() {
+			super(256 * 1024);
+		}
+
+		private byte[] getBuffer() {
+			return buf;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.weezlabs.libs.screenshoter.postprocess;
+
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.image.ImageFormat;
+import com.weezlabs.libs.screenshoter.image.PngFormat;
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes every image to a file named after its screenshot with a suffix, e.g. "screen_XXLARGE_2_XXXHDPI_thumb.png"
+ */
+public class FileStageSink implements StageSink {
+	private final File directory_;
+	private final String suffix_;
+	private final ImageFormat imageFormat_;
+
+	/**
+	 * Creates sink writing PNG files
+	 */
+	public FileStageSink(@Nullable File directory, @NonNull String suffix) {
+		this(directory, suffix, new PngFormat());
+	}
+
+	/**
+	 * @param directory   Directory files are written to. Screenshot's directory if null
+	 * @param suffix      Appended to screenshot's name without extension
+	 * @param imageFormat Format files are written in
+	 */
+	public FileStageSink(@Nullable File directory, @NonNull String suffix, @NonNull ImageFormat imageFormat) {
+		directory_ = directory;
+		suffix_ = suffix;
+		imageFormat_ = imageFormat;
+	}
+
+	/**
+	 * Returns file the image of the screenshot is written to
+	 */
+	public File getOutput(@NonNull File screenshot) {
+		String name = screenshot.getName();
+		int dotIndex = name.lastIndexOf('.');
+		String baseName = dotIndex > 0 ? name.substring(0, dotIndex) : name;
+		File directory = directory_ != null ? directory_ : screenshot.getAbsoluteFile().getParentFile();
+		return new File(directory, baseName + suffix_ + "." + imageFormat_.getFileExtension());
+	}
+
+	@Override
+	public void write(@NonNull File screenshot, @Nullable Mode mode, @NonNull BufferedImage image) throws IOException {
+		File output = getOutput(screenshot);
+		File directory = output.getParentFile();
+		if (!directory.exists() && !directory.mkdirs() && !directory.exists()) {
+			throw new IOException("Cannot create dir " + directory);
+		}
+		try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(output))) {
+			imageFormat_.encode(image, outputStream);
+		}
+	}
+}
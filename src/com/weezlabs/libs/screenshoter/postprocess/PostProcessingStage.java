@@ -0,0 +1,25 @@
+package com.weezlabs.libs.screenshoter.postprocess;
+
+import com.sun.javafx.beans.annotations.NonNull;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Step of {@link PostProcessor} making an image from captured frame, e.g. a thumbnail. Stage may be called for several
+ * frames at the same time, so it should not keep per frame state.
+ */
+public interface PostProcessingStage {
+	/**
+	 * Returns stage name used in logs
+	 */
+	String getName();
+
+	/**
+	 * Returns processed image
+	 *
+	 * @param image {@link BufferedImage#TYPE_INT_ARGB} frame. It is shared with other stages and the encoder and must
+	 *              not be changed
+	 */
+	BufferedImage process(@NonNull BufferedImage image) throws IOException;
+}
@@ -0,0 +1,160 @@
+package com.weezlabs.libs.screenshoter.postprocess;
+
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.concurrent.ThreadFactories;
+import com.weezlabs.libs.screenshoter.metrics.JobMetrics;
+import com.weezlabs.libs.screenshoter.metrics.ModeTimings;
+import com.weezlabs.libs.screenshoter.metrics.Phase;
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs post processing stages on frames right after they are captured, while the frame is encoded and written, so
+ * thumbnails and previews do not require reading screenshots again. Every stage of every frame is a separate task on
+ * the worker pool and writes its image to its own {@link StageSink}.
+ * <p/>
+ * Number of tasks waiting or running is bounded, {@link PostProcessor#submit(BufferedImage, File, Mode, ModeTimings)}
+ * blocks when post processing falls behind capture.
+ */
+public class PostProcessor {
+	public static final int DEFAULT_MAX_PENDING_TASKS = 16;
+	private static final long WORKERS_KEEP_ALIVE_SECONDS = 30;
+
+	private final Executor executor_;
+	private final Semaphore taskPermits_;
+	private final int maxPendingTasks_;
+	private final List<Stage> stages_ = new CopyOnWriteArrayList<>();
+	private final AtomicInteger failedTasks_ = new AtomicInteger();
+	private volatile JobMetrics jobMetrics_;
+
+	/**
+	 * Creates post processor with own pool of workers. Idle workers are stopped, so pool does not need shutdown
+	 */
+	public PostProcessor(int workersCount) {
+		this(createWorkers(workersCount), DEFAULT_MAX_PENDING_TASKS);
+	}
+
+	/**
+	 * @param executor        Executor running stages
+	 * @param maxPendingTasks Max number of stage tasks waiting or running
+	 */
+	public PostProcessor(@NonNull Executor executor, int maxPendingTasks) {
+		if (maxPendingTasks < 1) {
+			throw new IllegalArgumentException("maxPendingTasks must be positive");
+		}
+		executor_ = executor;
+		maxPendingTasks_ = maxPendingTasks;
+		taskPermits_ = new Semaphore(maxPendingTasks);
+	}
+
+	private static Executor createWorkers(int workersCount) {
+		if (workersCount < 1) {
+			throw new IllegalArgumentException("workersCount must be positive");
+		}
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(workersCount, workersCount, WORKERS_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), ThreadFactories.newPlatformThreadFactory("screenshot-postprocess-"));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Adds stage. Its images are passed to the sink
+	 */
+	public PostProcessor addStage(@NonNull PostProcessingStage stage, @NonNull StageSink sink) {
+		stages_.add(new Stage(stage, sink));
+		return this;
+	}
+
+	public boolean hasStages() {
+		return !stages_.isEmpty();
+	}
+
+	/**
+	 * Sets metrics to record stages' time to
+	 */
+	public void setJobMetrics(@Nullable JobMetrics jobMetrics) {
+		jobMetrics_ = jobMetrics;
+	}
+
+	/**
+	 * Starts all stages for the frame. Blocks while max number of tasks is pending
+	 *
+	 * @param image       {@link BufferedImage#TYPE_INT_ARGB} frame, must not be changed until stages finish
+	 * @param screenshot  File frame is written to
+	 * @param mode        Mode frame was captured in
+	 * @param modeTimings Timings of the mode stages' time is added to
+	 */
+	public void submit(@NonNull final BufferedImage image, @NonNull final File screenshot, @Nullable final Mode mode,
+					   @Nullable final ModeTimings modeTimings) throws InterruptedException {
+		for (final Stage stage : stages_) {
+			taskPermits_.acquire();
+			try {
+				executor_.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							runStage(stage, image, screenshot, mode, modeTimings);
+						} finally {
+							taskPermits_.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				taskPermits_.release();
+				e.printStackTrace();
+				failedTasks_.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Waits until all submitted stages are finished
+	 *
+	 * @return false if any stage failed since the previous call
+	 */
+	public boolean awaitCompletion() throws InterruptedException {
+		// All permits are free only when every task is finished
+		taskPermits_.acquire(maxPendingTasks_);
+		taskPermits_.release(maxPendingTasks_);
+		return failedTasks_.getAndSet(0) == 0;
+	}
+
+	private void runStage(Stage stage, BufferedImage image, File screenshot, Mode mode, ModeTimings modeTimings) {
+		long startTime = System.nanoTime();
+		try {
+			BufferedImage result = stage.stage_.process(image);
+			stage.sink_.write(screenshot, mode, result);
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Post processing stage " + stage.stage_.getName() + " failed for " + screenshot);
+			e.printStackTrace();
+			failedTasks_.incrementAndGet();
+		}
+		JobMetrics jobMetrics = jobMetrics_;
+		if (jobMetrics != null) {
+			jobMetrics.recordSince(modeTimings, Phase.POST_PROCESS, startTime);
+		}
+	}
+
+	private static class Stage {
+		private final PostProcessingStage stage_;
+		private final StageSink sink_;
+
+		private Stage(PostProcessingStage stage, StageSink sink) {
+			stage_ = stage;
+			sink_ = sink;
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.weezlabs.libs.screenshoter.postprocess;
+
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.image.ImageScaler;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales frame down to a fixed width keeping aspect ratio, so previews of all modes line up in reports. Frames
+ * narrower than the width are kept as is, upscaling would only blur them
+ */
+public class PreviewStage implements PostProcessingStage {
+	public static final int DEFAULT_WIDTH = 540;
+
+	private final int width_;
+
+	public PreviewStage() {
+		this(DEFAULT_WIDTH);
+	}
+
+	public PreviewStage(int width) {
+		if (width < 1) {
+			throw new IllegalArgumentException("Preview width must be positive");
+		}
+		width_ = width;
+	}
+
+	@Override
+	public String getName() {
+		return "preview " + width_;
+	}
+
+	@Override
+	public BufferedImage process(@NonNull BufferedImage image) {
+		if (image.getWidth() <= width_) {
+			return image;
+		}
+		int height = Math.max(1, (int) Math.round((double) image.getHeight() * width_ / image.getWidth()));
+		return ImageScaler.downscale(image, width_, height);
+	}
+}
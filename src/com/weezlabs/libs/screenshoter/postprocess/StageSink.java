@@ -0,0 +1,21 @@
+package com.weezlabs.libs.screenshoter.postprocess;
+
+import com.sun.istack.internal.Nullable;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.model.Mode;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Receives images made by a {@link PostProcessingStage}. Called from post processing threads, several frames may be
+ * written at the same time.
+ */
+public interface StageSink {
+	/**
+	 * @param screenshot File screenshot the image is made of is written to
+	 * @param mode       Mode screenshot was captured in. Null if unknown
+	 */
+	void write(@NonNull File screenshot, @Nullable Mode mode, @NonNull BufferedImage image) throws IOException;
+}
@@ -0,0 +1,44 @@
+package com.weezlabs.libs.screenshoter.postprocess;
+
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.image.ImageScaler;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales frame down to fit a box keeping aspect ratio. Frames already fitting the box are kept as is
+ */
+public class ThumbnailStage implements PostProcessingStage {
+	public static final int DEFAULT_SIZE = 256;
+
+	private final int maxWidth_;
+	private final int maxHeight_;
+
+	public ThumbnailStage() {
+		this(DEFAULT_SIZE, DEFAULT_SIZE);
+	}
+
+	public ThumbnailStage(int maxWidth, int maxHeight) {
+		if (maxWidth < 1 || maxHeight < 1) {
+			throw new IllegalArgumentException("Thumbnail size must be positive");
+		}
+		maxWidth_ = maxWidth;
+		maxHeight_ = maxHeight;
+	}
+
+	@Override
+	public String getName() {
+		return "thumbnail " + maxWidth_ + "x" + maxHeight_;
+	}
+
+	@Override
+	public BufferedImage process(@NonNull BufferedImage image) {
+		double scale = Math.min((double) maxWidth_ / image.getWidth(), (double) maxHeight_ / image.getHeight());
+		if (scale >= 1) {
+			return image;
+		}
+		int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+		int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+		return ImageScaler.downscale(image, width, height);
+	}
+}
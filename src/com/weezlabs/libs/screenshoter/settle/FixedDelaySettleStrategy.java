@@ -0,0 +1,29 @@
+package com.weezlabs.libs.screenshoter.settle;
+
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.adb.DeviceShellHelper;
+import com.weezlabs.libs.screenshoter.capture.CapturedFrame;
+
+/**
+ * Always sleeps for the same time
+ */
+public class FixedDelaySettleStrategy implements SettleStrategy {
+	private final long delayMs_;
+
+	public FixedDelaySettleStrategy(long delayMs) {
+		if (delayMs < 0) {
+			throw new IllegalArgumentException("Delay cannot be negative");
+		}
+		delayMs_ = delayMs;
+	}
+
+	@Override
+	public CapturedFrame awaitSettled(@NonNull DeviceShellHelper shellHelper) throws InterruptedException {
+		Thread.sleep(delayMs_);
+		return null;
+	}
+
+	public long getDelayMs() {
+		return delayMs_;
+	}
+}
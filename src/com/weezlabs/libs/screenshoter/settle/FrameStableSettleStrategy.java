@@ -0,0 +1,131 @@
+package com.weezlabs.libs.screenshoter.settle;
+
+import com.android.ddmlib.RawImage;
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.adb.DeviceShellHelper;
+import com.weezlabs.libs.screenshoter.capture.CapturedFrame;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls device's framebuffer and considers display settled as soon as several consecutive frames have the same
+ * fingerprint. Fingerprint is a hash of a sparse grid of pixels, so comparing frames is cheap. PNG frames are
+ * fingerprinted by all their bytes, PNG encoder on device is deterministic.
+ * The last polled frame is returned and used as a screenshot, no extra capture is needed.
+ */
+public class FrameStableSettleStrategy implements SettleStrategy {
+	public static final long DEFAULT_MIN_WAIT_MS = 200;
+	public static final long DEFAULT_MAX_WAIT_MS = 3000;
+	public static final long DEFAULT_POLL_INTERVAL_MS = 100;
+	public static final int DEFAULT_MATCHING_FRAMES = 2;
+	private static final int GRID_SIZE = 64;
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final long minWaitMs_;
+	private final long maxWaitMs_;
+	private final long pollIntervalMs_;
+	private final int matchingFrames_;
+
+	public FrameStableSettleStrategy() {
+		this(DEFAULT_MIN_WAIT_MS, DEFAULT_MAX_WAIT_MS, DEFAULT_POLL_INTERVAL_MS, DEFAULT_MATCHING_FRAMES);
+	}
+
+	/**
+	 * @param minWaitMs      Time to sleep before the first poll
+	 * @param maxWaitMs      Max time to wait. Last polled frame is used when display did not settle in time
+	 * @param pollIntervalMs Time to sleep between polls
+	 * @param matchingFrames Number of consecutive frames with the same fingerprint
+	 */
+	public FrameStableSettleStrategy(long minWaitMs, long maxWaitMs, long pollIntervalMs, int matchingFrames) {
+		if (minWaitMs < 0 || pollIntervalMs < 0 || maxWaitMs < minWaitMs) {
+			throw new IllegalArgumentException("Wrong wait times");
+		}
+		if (matchingFrames < 2) {
+			throw new IllegalArgumentException("At least 2 frames are needed to compare");
+		}
+		minWaitMs_ = minWaitMs;
+		maxWaitMs_ = maxWaitMs;
+		pollIntervalMs_ = pollIntervalMs;
+		matchingFrames_ = matchingFrames;
+	}
+
+	@Override
+	public CapturedFrame awaitSettled(@NonNull DeviceShellHelper shellHelper) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs_);
+		Thread.sleep(minWaitMs_);
+		CapturedFrame lastFrame = null;
+		long lastFingerprint = 0;
+		int matches = 0;
+		while (true) {
+			CapturedFrame frame = shellHelper.captureFrame();
+			if (frame != null) {
+				long fingerprint = getFingerprint(frame);
+				if (lastFrame != null && fingerprint == lastFingerprint) {
+					matches++;
+				} else {
+					matches = 1;
+				}
+				lastFrame = frame;
+				lastFingerprint = fingerprint;
+				if (matches >= matchingFrames_) {
+					return lastFrame;
+				}
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pollIntervalMs_) - deadline >= 0) {
+				System.out.println("Display did not settle in " + maxWaitMs_ + " ms");
+				return lastFrame;
+			}
+			Thread.sleep(pollIntervalMs_);
+		}
+	}
+
+	/**
+	 * Returns fingerprint of raw pixels or of PNG bytes
+	 */
+	public static long getFingerprint(@NonNull CapturedFrame frame) {
+		if (!frame.isPng()) {
+			return getFingerprint(frame.getRawImage());
+		}
+		long hash = FNV_OFFSET_BASIS;
+		byte[] data = frame.getPngData();
+		for (int i = 0; i < frame.getPngLength(); i++) {
+			hash = (hash ^ (data[i] & 0xFF)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns FNV-1a hash of pixels picked from a {@value #GRID_SIZE}x{@value #GRID_SIZE} grid.
+	 * Frames of different size or layout always have different fingerprints
+	 */
+	public static long getFingerprint(@NonNull RawImage rawImage) {
+		long hash = FNV_OFFSET_BASIS;
+		hash = (hash ^ rawImage.width) * FNV_PRIME;
+		hash = (hash ^ rawImage.height) * FNV_PRIME;
+		hash = (hash ^ rawImage.bpp) * FNV_PRIME;
+		int bytesPerPixel = rawImage.bpp >> 3;
+		if (rawImage.data == null || bytesPerPixel == 0) {
+			return hash;
+		}
+		int stepX = Math.max(1, rawImage.width / GRID_SIZE);
+		int stepY = Math.max(1, rawImage.height / GRID_SIZE);
+		byte[] data = rawImage.data;
+		for (int y = stepY / 2; y < rawImage.height; y += stepY) {
+			int rowIndex = y * rawImage.width;
+			for (int x = stepX / 2; x < rawImage.width; x += stepX) {
+				int index = (rowIndex + x) * bytesPerPixel;
+				if (index + bytesPerPixel > data.length) {
+					return hash;
+				}
+				for (int i = 0; i < bytesPerPixel; i++) {
+					hash = (hash ^ (data[index + i] & 0xFF)) * FNV_PRIME;
+				}
+			}
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,18 @@
+package com.weezlabs.libs.screenshoter.settle;
+
+import com.sun.javafx.beans.annotations.NonNull;
+import com.weezlabs.libs.screenshoter.adb.DeviceShellHelper;
+import com.weezlabs.libs.screenshoter.capture.CapturedFrame;
+
+/**
+ * Decides how long to wait after display parameters change before a screenshot is made.
+ * Implementations must be thread safe, the same strategy can be shared by several sessions.
+ */
+public interface SettleStrategy {
+	/**
+	 * Blocks until device's display is settled
+	 *
+	 * @return Last captured frame if strategy captured the settled display itself, null if screenshot still must be made
+	 */
+	CapturedFrame awaitSettled(@NonNull DeviceShellHelper shellHelper) throws InterruptedException;
+}